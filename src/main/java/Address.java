@@ -0,0 +1,143 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned address: the canonical instance of a public key along with its serialized bytes, a
+ * 32-byte fingerprint and a precomputed hash. The fingerprint is the SHA-256 of the scheme ordinal
+ * followed by the serialized key.
+ *
+ * Outputs paying the same address share one {@code Address} and one key object, so comparing and
+ * hashing them costs O(1) instead of going through the key (e.g. the 2048-bit modulus of an RSA
+ * key), and each distinct key is serialized once. Two addresses are equal if their fingerprints
+ * are.
+ */
+public final class Address {
+
+    /** Maximum number of addresses kept in each interning table */
+    private static final int CAPACITY = 100_000;
+
+    /** The interned addresses by key, and by fingerprint for the keys read from serialized bytes */
+    private static final ConcurrentHashMap<PublicKey, Address> byKey = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<ByteArrayWrapper, Address> byFingerprint = new ConcurrentHashMap<>();
+
+    private final PublicKey key;
+    private final SignatureScheme scheme;
+    private final byte[] rawBytes;
+    private final int prefixLength;
+    private final byte[] fingerprint;
+    private final int hash;
+
+    private Address(PublicKey key, SignatureScheme scheme, byte[] rawBytes, int prefixLength, byte[] fingerprint) {
+        this.key = key;
+        this.scheme = scheme;
+        this.rawBytes = rawBytes;
+        this.prefixLength = prefixLength;
+        this.fingerprint = fingerprint;
+        this.hash = ByteBuffer.wrap(fingerprint).getInt();
+    }
+
+    /**
+     * Returns the interned address of {@code key}.
+     *
+     * @throws IllegalArgumentException if the key doesn't belong to a supported scheme
+     */
+    public static Address intern(PublicKey key) {
+        Address address = byKey.get(key);
+        if (address != null)
+            return address;
+        SignatureScheme scheme = SignatureScheme.forKey(key);
+        byte[] rawBytes = scheme.serializeKey(key);
+        byte[] fingerprint = computeFingerprint(scheme, ByteBuffer.wrap(rawBytes));
+        address = byFingerprint.get(new ByteArrayWrapper(fingerprint));
+        if (address == null)
+            address = new Address(key, scheme, rawBytes, scheme.getPrefixLength(key), fingerprint);
+        return put(address, key);
+    }
+
+    /**
+     * Returns the interned address of the key of {@code scheme} serialized as the remaining bytes of
+     * {@code rawBytes}, whose first field is {@code prefixLength} bytes long. The key is only
+     * deserialized if it isn't interned yet.
+     *
+     * @throws IllegalArgumentException if the bytes aren't a valid key of the scheme
+     */
+    public static Address intern(SignatureScheme scheme, ByteBuffer rawBytes, int prefixLength) {
+        byte[] fingerprint = computeFingerprint(scheme, rawBytes.duplicate());
+        Address address = byFingerprint.get(new ByteArrayWrapper(fingerprint));
+        if (address != null)
+            return address;
+        byte[] raw = new byte[rawBytes.remaining()];
+        rawBytes.duplicate().get(raw);
+        PublicKey key = scheme.deserializeKey(raw, prefixLength);
+        return put(new Address(key, scheme, raw, prefixLength, fingerprint), key);
+    }
+
+    public PublicKey getKey() {
+        return key;
+    }
+
+    public SignatureScheme getScheme() {
+        return scheme;
+    }
+
+    /** Returns the bytes of the key used in serialization and signing, which must not be modified */
+    public byte[] getRawBytes() {
+        return rawBytes;
+    }
+
+    /** Returns the length of the first field of the serialized key, see {@link SignatureScheme#getPrefixLength} */
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    /** Returns the fingerprint of the address, which must not be modified */
+    public byte[] getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (! (other instanceof Address))
+            return false;
+        Address address = (Address) other;
+        return hash == address.hash && Arrays.equals(fingerprint, address.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    private static byte[] computeFingerprint(SignatureScheme scheme, ByteBuffer rawBytes) {
+        MessageDigest md = BlockCodec.sha256();
+        md.update((byte) scheme.ordinal());
+        md.update(rawBytes);
+        return md.digest();
+    }
+
+    /**
+     * Interns {@code address} under {@code key} and its fingerprint, unless another thread did it
+     * first, and returns the interned address. The tables are cleared all at once when they get
+     * full, so an address may then get a second instance, which is still equal to the first one.
+     */
+    private static Address put(Address address, PublicKey key) {
+        if (byKey.size() >= CAPACITY)
+            byKey.clear();
+        if (byFingerprint.size() >= CAPACITY)
+            byFingerprint.clear();
+        Address existing = byFingerprint.putIfAbsent(new ByteArrayWrapper(address.fingerprint), address);
+        if (existing != null)
+            address = existing;
+        byKey.putIfAbsent(key, address);
+        return address;
+    }
+}
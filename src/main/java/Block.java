@@ -1,8 +1,10 @@
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 public class Block {
 
@@ -12,12 +14,23 @@ public class Block {
     private byte[] prevBlockHash;
     private Transaction coinbase;
     private ArrayList<Transaction> txs;
+    /** serialized bytes of the finalized block, cached on first use and cleared by every mutator */
+    private byte[] rawBlock;
+    /** Merkle tree over the hashes of the coinbase followed by the transactions */
+    private MerkleTree merkleTree;
+    /** set when a transaction was added before being finalized, so the tree must be rebuilt */
+    private boolean merkleTreeStale;
+    private byte[] merkleRoot;
+    /** index of every transaction hash in the Merkle tree, built on the first proof request */
+    private HashMap<ByteArrayWrapper, Integer> leafIndexMap;
 
     /** {@code address} is the address to which the coinbase transaction would go */
     public Block(byte[] prevHash, PublicKey address) {
         prevBlockHash = prevHash;
         coinbase = new Transaction(COINBASE, address);
         txs = new ArrayList<Transaction>();
+        merkleTree = new MerkleTree();
+        merkleTree.addLeaf(coinbase.getHash());
     }
 
     public Transaction getCoinbase() {
@@ -32,6 +45,11 @@ public class Block {
         return prevBlockHash;
     }
 
+    /** Returns the Merkle root of the transaction hashes computed by the last finalize() */
+    public byte[] getMerkleRoot() {
+        return merkleRoot;
+    }
+
     public ArrayList<Transaction> getTransactions() {
         return txs;
     }
@@ -40,39 +58,111 @@ public class Block {
         return txs.get(index);
     }
 
+    /**
+     * Adds {@code tx} to the block. If {@code tx} is already finalized, the Merkle tree is updated
+     * incrementally in O(log n).
+     */
     public void addTransaction(Transaction tx) {
         txs.add(tx);
+        rawBlock = null;
+        if (tx.getHash() != null && ! merkleTreeStale)
+            merkleTree.addLeaf(tx.getHash());
+        else
+            merkleTreeStale = true;
+        leafIndexMap = null;
+    }
+
+    /** Returns the block header that is hashed: the previous block hash followed by the Merkle root */
+    public byte[] getRawHeader() {
+        return BlockHeader.getRawHeader(prevBlockHash, merkleRoot);
+    }
+
+    /**
+     * Returns a proof that the transaction (or coinbase) hashed {@code txHash} is included in this
+     * finalized block, or null if it isn't.
+     */
+    public MerkleProof getInclusionProof(byte[] txHash) {
+        if (hash == null || txHash == null)
+            return null;
+        if (leafIndexMap == null) {
+            HashMap<ByteArrayWrapper, Integer> indices = new HashMap<>();
+            for (int i = 0; i < merkleTree.size(); i++)
+                indices.putIfAbsent(new ByteArrayWrapper(merkleTree.getLeaf(i)), i);
+            leafIndexMap = indices;
+        }
+        Integer index = leafIndexMap.get(new ByteArrayWrapper(txHash));
+        if (index == null)
+            return null;
+        ArrayList<Boolean> siblingOnLeft = new ArrayList<>();
+        List<byte[]> branch = merkleTree.getBranch(index, siblingOnLeft);
+        return new MerkleProof(txHash, prevBlockHash, branch, siblingOnLeft);
     }
 
+    /**
+     * Returns the previous block hash followed by the raw coinbase and the raw transactions. Once
+     * the block is finalized, the bytes are cached until a transaction is added.
+     */
     public byte[] getRawBlock() {
-        ArrayList<Byte> rawBlock = new ArrayList<Byte>();
-        if (prevBlockHash != null)
-            for (int i = 0; i < prevBlockHash.length; i++)
-                rawBlock.add(prevBlockHash[i]);
-			
-		byte[] rawCoinbase = coinbase.getRawTx();
-	    for (int j = 0; j < rawCoinbase.length; j++) {
-			rawBlock.add(rawCoinbase[j]);
-		}
-        for (int i = 0; i < txs.size(); i++) {
-            byte[] rawTx = txs.get(i).getRawTx();
-            for (int j = 0; j < rawTx.length; j++) {
-                rawBlock.add(rawTx[j]);
-            }
+        byte[] raw = rawBlock;
+        if (raw == null) {
+            int size = (prevBlockHash != null) ? prevBlockHash.length : 0;
+            size += coinbase.getRawTxBytes().length;
+            for (Transaction tx : txs)
+                size += tx.getRawTxBytes().length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            if (prevBlockHash != null)
+                buffer.put(prevBlockHash);
+            buffer.put(coinbase.getRawTxBytes());
+            for (Transaction tx : txs)
+                buffer.put(tx.getRawTxBytes());
+            raw = buffer.array();
+            if (hash != null)
+                rawBlock = raw;
         }
-        byte[] raw = new byte[rawBlock.size()];
-        for (int i = 0; i < raw.length; i++)
-            raw[i] = rawBlock.get(i);
-        return raw;
+        return raw.clone();
+    }
+
+    /** Returns the size in bytes of the serialized block, without serializing the block itself */
+    public int getSize() {
+        byte[] raw = rawBlock;
+        if (raw != null)
+            return raw.length;
+        int size = (prevBlockHash != null) ? prevBlockHash.length : 0;
+        size += coinbase.getRawTxBytes().length;
+        for (Transaction tx : txs)
+            size += tx.getRawTxBytes().length;
+        return size;
     }
 
+    /**
+     * Computes the block hash as SHA-256 of the header, which commits to the transactions through
+     * the Merkle root of their hashes (coinbase first). Only the paths of the leaves whose
+     * transaction hash changed since it was added, e.g. a replaced coinbase or a transaction signed
+     * and finalized again, are recomputed, unless a transaction was added before being finalized,
+     * in which case the whole tree is rebuilt (in parallel for large blocks).
+     */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawBlock());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        if (merkleTreeStale) {
+            ArrayList<byte[]> leaves = new ArrayList<>(txs.size() + 1);
+            leaves.add(coinbase.getHash());
+            for (Transaction tx : txs)
+                leaves.add(tx.getHash());
+            merkleTree = new MerkleTree(leaves);
+            merkleTreeStale = false;
+        }
+        else {
+            if (! Arrays.equals(merkleTree.getLeaf(0), coinbase.getHash()))
+                merkleTree.setLeaf(0, coinbase.getHash());
+            for (int i = 0; i < txs.size(); i++) {
+                byte[] txHash = txs.get(i).getHash();
+                if (! Arrays.equals(merkleTree.getLeaf(i + 1), txHash))
+                    merkleTree.setLeaf(i + 1, txHash);
+            }
         }
+        merkleRoot = merkleTree.getRoot();
+        hash = BlockHeader.computeHash(prevBlockHash, merkleRoot);
+        rawBlock = null;
+        leafIndexMap = null;
     }
 }
@@ -7,7 +7,15 @@
 // You should not have all the blocks added to the blockchain in memory
 // as it would cause a memory overflow.
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents the blockchain
@@ -16,13 +24,50 @@ public class BlockChain {
 
     public static final int CUT_OFF_AGE = 10;
 
-    // All the blocks in the blockHashMap are valid block which satisfies the
-    // cut of age constraint
-    private final HashMap<ByteArrayWrapper, Block> blockHashMap;
-    private final HashMap<Block, UTXOPool> blockUTXOPoolMap;
-    private final HashMap<Integer, List<Block>> blockLevelMap;
-    private Integer maximumHeight;
+    /** Prunes the chain state of every blockchain off the thread adding the blocks */
+    private static final ExecutorService pruningExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blockchain-pruning");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Writes the UTXO snapshots of every blockchain off the thread adding the blocks */
+    private static final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "utxo-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The index of the valid blocks added, except the evicted side branches. Every node keeps the
+    // header of its block, which takes a few dozen bytes, and the body and undo record of the block
+    // while they are retained.
+    private final HashMap<ByteArrayWrapper, BlockNode> blockIndex;
+    // The height of the first block: 1 for a genesis block, more when restored from a UTXO snapshot
+    private final int rootHeight;
+    // The nodes of the main chain indexed by height - rootHeight, up to the maximum height block
+    private final ArrayList<BlockNode> mainChain;
+    // The UTXO set of the maximum height block, the only one kept in memory
+    private UTXOPool tipUtxoPool;
+    // The nodes retaining a body and the nodes retaining an undo record, lowest height first. Nodes
+    // evicted with their side branch are only removed when they reach the head of the queues.
+    private final PriorityQueue<BlockNode> bodyNodes;
+    private final PriorityQueue<BlockNode> undoNodes;
+    // The nodes outside of the main chain which retain an undo record, so they can be built on
+    private final HashSet<BlockNode> sideNodes;
+    // The estimated bytes of the retained bodies and undo records
+    private long retainedSize;
+    private final PruningPolicy pruningPolicy;
+    // Stores every valid block on disk, or null if the blocks are only kept in memory
+    private final BlockStore blockStore;
+    private final AtomicBoolean pruningScheduled;
+    private volatile Future<?> pruningTask;
+    // The file the UTXO snapshots are written to every snapshotInterval heights, or null
+    private Path snapshotFile;
+    private int snapshotInterval;
+    private final AtomicBoolean snapshotInProgress;
+    private volatile Future<?> snapshotTask;
     private final TransactionPool transactionPool;
+    private final SignatureVerifier signatureVerifier;
 
 
     /**
@@ -31,50 +76,158 @@ public class BlockChain {
      * Initializes the blockchain data structures with the genesis block.
      */
     public BlockChain(Block genesisBlock) {
-        // Initialize hashmap
-        blockHashMap = new HashMap<>();
-        ByteArrayWrapper genesisBlockHash = new ByteArrayWrapper(genesisBlock.getHash());
-        blockHashMap.put(genesisBlockHash, genesisBlock);
+        this(genesisBlock, SignatureVerifier.getDefault());
+    }
 
-        // Initialize the UTXO Pool map
-        blockUTXOPoolMap = new HashMap<>();
-        UTXOPool genesisBlockUtxoPool = new UTXOPool();
-        for (Transaction tx : genesisBlock.getTransactions()) {
-            int index = 0;
-            for (Transaction.Output txOutput : tx.getOutputs()) {
-                UTXO newUtxo = new UTXO(tx.getHash(), index++);
-                genesisBlockUtxoPool.addUTXO(newUtxo, txOutput);
-            }
-        }
-        // Adding coinbase transaction if it exists.
-        Transaction coinBaseTransaction = genesisBlock.getCoinbase();
-        if (coinBaseTransaction != null && coinBaseTransaction.getOutput(0).address != null
-            && coinBaseTransaction.getOutput(0).value > 0) {
+    /**
+     * create an empty blockchain with just a genesis block which verifies the signatures of the
+     * transactions using {@code signatureVerifier}.
+     */
+    public BlockChain(Block genesisBlock, SignatureVerifier signatureVerifier) {
+        this(genesisBlock, signatureVerifier, PruningPolicy.getDefault());
+    }
 
-            UTXO coinBaseUtxo = new UTXO(coinBaseTransaction.getHash(), 0);
-            genesisBlockUtxoPool.addUTXO(coinBaseUtxo, coinBaseTransaction.getOutput(0));
-        }
-        blockUTXOPoolMap.put(genesisBlock, genesisBlockUtxoPool);
+    /**
+     * create an empty blockchain with just a genesis block which keeps the bodies of the blocks
+     * at most {@code bodyRetentionDepth} below the maximum height. Only the headers of deeper blocks
+     * are kept.
+     */
+    public BlockChain(Block genesisBlock, SignatureVerifier signatureVerifier, int bodyRetentionDepth) {
+        this(genesisBlock, signatureVerifier, PruningPolicy.getDefault().withBodyRetentionDepth(bodyRetentionDepth));
+    }
+
+    /**
+     * create an empty blockchain with just a genesis block which limits the chain state retained in
+     * memory with {@code pruningPolicy}.
+     */
+    public BlockChain(Block genesisBlock, SignatureVerifier signatureVerifier, PruningPolicy pruningPolicy) {
+        this(genesisBlock, signatureVerifier, pruningPolicy, null);
+    }
 
-        // Initialize block level hash map
-        blockLevelMap = new HashMap<>();
-        ArrayList<Block> initialLevelList = new ArrayList<>();
-        initialLevelList.add(genesisBlock);
-        blockLevelMap.put(1, initialLevelList);
-        this.maximumHeight = 1;
+    /**
+     * create a blockchain with a genesis block which also appends every valid block to
+     * {@code blockStore}, unless it is null, so pruned bodies can still be read from disk. If the
+     * store already holds a main chain starting with {@code genesisBlock}, its blocks are added
+     * again to restore the blockchain.
+     *
+     * @throws IllegalArgumentException if the store holds a chain with another genesis block
+     * @throws UncheckedIOException if the store can't be read or written
+     */
+    public BlockChain(Block genesisBlock, SignatureVerifier signatureVerifier, PruningPolicy pruningPolicy,
+                      BlockStore blockStore) {
+        this(genesisBlock, 1, createGenesisUtxoPool(genesisBlock), signatureVerifier, pruningPolicy, blockStore);
+        if (blockStore != null)
+            restoreFromBlockStore();
+    }
+
+    /**
+     * create a blockchain restored from {@code snapshot}. The block of the snapshot, read from
+     * {@code blockStore}, becomes the first block of the blockchain with the UTXO set of the
+     * snapshot, then the main chain blocks of the store above it are added again. Only these blocks
+     * are validated, instead of the whole chain from the genesis block.
+     *
+     * @throws IllegalArgumentException if the store doesn't hold the main chain of the snapshot
+     * @throws UncheckedIOException if the store can't be read or written
+     */
+    public BlockChain(UtxoSnapshot snapshot, SignatureVerifier signatureVerifier, PruningPolicy pruningPolicy,
+                      BlockStore blockStore) {
+        this(getSnapshotBlock(snapshot, blockStore), snapshot.getHeight(), snapshot.toUtxoPool(),
+             signatureVerifier, pruningPolicy, blockStore);
+        restoreFromBlockStore();
+    }
+
+    /**
+     * Initializes the blockchain data structures with {@code rootBlock} at {@code rootHeight}, whose
+     * UTXO set is {@code rootUtxoPool}.
+     */
+    private BlockChain(Block rootBlock, int rootHeight, UTXOPool rootUtxoPool, SignatureVerifier signatureVerifier,
+                       PruningPolicy pruningPolicy, BlockStore blockStore) {
+        this.signatureVerifier = signatureVerifier;
+        this.pruningPolicy = pruningPolicy;
+        this.blockStore = blockStore;
+        this.pruningScheduled = new AtomicBoolean();
+        this.snapshotInProgress = new AtomicBoolean();
+        this.rootHeight = rootHeight;
+        tipUtxoPool = rootUtxoPool;
+
+        // Initialize the block index, the first block is never disconnected so its undo record is empty
+        UndoRecord rootUndoRecord = new UndoRecord(rootBlock, rootUtxoPool, rootUtxoPool);
+        BlockNode rootNode = new BlockNode(new BlockHeader(rootBlock, rootHeight), null, rootBlock, rootUndoRecord);
+        blockIndex = new HashMap<>();
+        blockIndex.put(new ByteArrayWrapper(rootBlock.getHash()), rootNode);
+        mainChain = new ArrayList<>();
+        mainChain.add(rootNode);
+        bodyNodes = new PriorityQueue<>(Comparator.comparingInt(BlockNode::getHeight));
+        bodyNodes.add(rootNode);
+        undoNodes = new PriorityQueue<>(Comparator.comparingInt(BlockNode::getHeight));
+        undoNodes.add(rootNode);
+        sideNodes = new HashSet<>();
+        retainedSize = rootBlock.getSize() + rootUndoRecord.getEstimatedSize();
 
         // Initialize the transaction pool
         this.transactionPool = new TransactionPool();
     }
 
     /** Get the maximum height block */
-    public Block getMaxHeightBlock() {
-        return blockLevelMap.get(maximumHeight).get(0);
+    public synchronized Block getMaxHeightBlock() {
+        return getBlock(getMaxHeightNode().getHash());
     }
 
     /** Get the UTXOPool for mining a new block on top of max height block */
-    public UTXOPool getMaxHeightUTXOPool() {
-        return blockUTXOPoolMap.get(getMaxHeightBlock());
+    public synchronized UTXOPool getMaxHeightUTXOPool() {
+        return new UTXOPool(tipUtxoPool);
+    }
+
+    /** Get the maximum height of the blockchain, the height of the genesis block being 1 */
+    public synchronized int getMaxHeight() {
+        return rootHeight + mainChain.size() - 1;
+    }
+
+    /**
+     * Get the header of the block at {@code height} on the chain of the maximum height block, or null
+     * if there is none.
+     */
+    public synchronized BlockHeader getMainChainHeader(int height) {
+        if (height < rootHeight || height > getMaxHeight())
+            return null;
+        return getMainChainNode(height).getHeader();
+    }
+
+    /**
+     * Get the header of the block hashed {@code blockHash}, or null if it was never added or its
+     * side branch was evicted
+     */
+    public synchronized BlockHeader getHeader(byte[] blockHash) {
+        BlockNode node = getNode(blockHash);
+        return (node == null) ? null : node.getHeader();
+    }
+
+    /**
+     * Get the body of the block hashed {@code blockHash}, or null if it isn't retained in memory nor
+     * in the block store
+     */
+    public synchronized Block getBlock(byte[] blockHash) {
+        BlockNode node = getNode(blockHash);
+        if (node == null)
+            return null;
+        if (node.getBlock() != null || blockStore == null)
+            return node.getBlock();
+        try {
+            return blockStore.getBlock(blockHash);
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in reading a block from the block store", x);
+        }
+    }
+
+    /**
+     * Get the header of the ancestor at {@code height} of the block hashed {@code blockHash} using
+     * the headers only. Returns null if the block is unknown or lower than {@code height}.
+     */
+    public synchronized BlockHeader getAncestorHeader(byte[] blockHash, int height) {
+        BlockNode node = getNode(blockHash);
+        if (node == null || height < rootHeight || height > node.getHeight())
+            return null;
+        return getAncestor(node, height).getHeader();
     }
 
     /** Get the transaction pool to mine a new block */
@@ -82,10 +235,80 @@ public class BlockChain {
         return transactionPool;
     }
 
+    /**
+     * Get a proof that the transaction hashed {@code txHash} is included in the retained block hashed
+     * {@code blockHash}. Returns null if the block isn't retained or doesn't include the transaction.
+     */
+    public synchronized MerkleProof getInclusionProof(byte[] blockHash, byte[] txHash) {
+        Block block = getBlock(blockHash);
+        if (block == null)
+            return null;
+        return block.getInclusionProof(txHash);
+    }
+
+    /** Get the signature verifier used to validate transactions */
+    public SignatureVerifier getSignatureVerifier() {
+        return signatureVerifier;
+    }
+
+    /** Get the policy limiting the retained chain state */
+    public PruningPolicy getPruningPolicy() {
+        return pruningPolicy;
+    }
+
+    /** Get the estimated bytes of the block bodies and undo records retained in memory */
+    public synchronized long getRetainedSize() {
+        return retainedSize;
+    }
+
+    /** Get the number of blocks in the block index, whose headers are kept in memory */
+    public synchronized int getIndexedBlockCount() {
+        return blockIndex.size();
+    }
+
+    /** Get the number of blocks outside of the main chain which can still be built on */
+    public synchronized int getSideBranchBlockCount() {
+        return sideNodes.size();
+    }
+
+    /**
+     * Waits until the pruning scheduled by the blocks added so far is done.
+     *
+     * @throws RuntimeException if the pruning failed
+     */
+    public void awaitPruning() {
+        await(pruningTask, "Failure in pruning the blockchain");
+    }
+
+    /**
+     * Writes a snapshot of the UTXO set of the maximum height block to {@code snapshotFile} in the
+     * background whenever the maximum height reaches a multiple of {@code blockInterval}. A snapshot
+     * is skipped if the previous one is still being written. A null {@code snapshotFile} stops the
+     * snapshots.
+     */
+    public synchronized void scheduleSnapshots(Path snapshotFile, int blockInterval) {
+        if (snapshotFile != null && blockInterval < 1)
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        this.snapshotFile = snapshotFile;
+        this.snapshotInterval = blockInterval;
+    }
+
+    /**
+     * Waits until the UTXO snapshot being written, if any, is done.
+     *
+     * @throws RuntimeException if the snapshot couldn't be written
+     */
+    public void awaitSnapshot() {
+        await(snapshotTask, "Failure in writing the UTXO snapshot");
+    }
+
     /**
      * Add {@code block} to the blockchain if it is valid. For validity, all transactions should be
      * valid and block should be at {@code height > (maxHeight - CUT_OFF_AGE)}, where maxHeight is 
-     * the current height of the blockchain.
+     * the current height of the blockchain and CUT_OFF_AGE the cut-off age of the pruning policy.
+     * The main chain block its branch forks from must also be at
+     * {@code height >= (maxHeight - CUT_OFF_AGE)}, like its parent: the UTXO set of the branch is
+     * rebuilt from the main chain with undo records, which are pruned below that height.
 	 * <p>
 	 * Assume the Genesis block is at height 1.
      * For example, you can try creating a new block over the genesis block (i.e. create a block at 
@@ -97,48 +320,120 @@ public class BlockChain {
      * Validate the block by doing the following:
      *
      * 1) If prev block hash is null returns false.
-     * 2) Check if the prev block exists.
+     * 2) Check if the prev block exists and can be built on, and the block wasn't already added.
      * 3) Check if all the transactions in the block are valid.
-     * 4) Add the block in all the datastructures and fork if necessary and update UTXO pools
-     * 5) If the block is added has updated the max height remove old blockchains if necessary.
-     * 6) Remove all transactions of the newly added block from the transactions pool.
+     * 4) Add the block to the block index and make it the maximum height block, along with its UTXO
+     *    set, if its chain has the most work.
+     * 5) Drop the bodies deeper than the body retention depth and schedule the pruning of the
+     *    remaining chain state and the UTXO snapshot if necessary.
+     * 6) If the block is the new maximum height block, reconcile the transactions pool with the
+     *    blocks connected to and disconnected from the main chain.
      */
-    public boolean addBlock(Block block) {
+    public synchronized boolean addBlock(Block block) {
 
         // satisfies (1)
         if (block.getPrevBlockHash() == null)
             return false;
 
         // satisfies (2)
-        ByteArrayWrapper prevBlockHash = new ByteArrayWrapper(block.getPrevBlockHash());
-        if (! blockHashMap.containsKey(prevBlockHash))
+        BlockNode prevNode = getExtendableNode(block.getPrevBlockHash(), block.getHash());
+        if (prevNode == null)
+            return false;
+        UTXOPool prevBlockUtxoPool = getUtxoPoolAt(prevNode);
+        if (prevBlockUtxoPool == null)
             return false;
 
         // satisfies (3)
-        Block prevBlock = blockHashMap.get(prevBlockHash);
-        UTXOPool prevBlockUtxoPool = blockUTXOPoolMap.get(prevBlock);
-        UTXOPool newBlockUtxoPool = getNewBlockUtxoPoolIfValid(block, prevBlockUtxoPool);
+        Transaction coinbase = block.getCoinbase();
+        UTXOPool newBlockUtxoPool = getNewBlockUtxoPoolIfValid(block.getTransactions().toArray(new Transaction[0]),
+                                                               coinbase.getHash(), coinbase.getOutput(0),
+                                                               prevBlockUtxoPool);
         if (newBlockUtxoPool == null)
             return false;
         /// From here the block is validated and will be added to the blockchain.
 
-        // satisfies (4)
-        ByteArrayWrapper newBlockHash = new ByteArrayWrapper(block.getHash());
-        Integer newBlockHeight = getBlockHeight(prevBlockHash) + 1;
-        updateDataStructures(block, newBlockUtxoPool, newBlockHash, newBlockHeight);
+        // Storing the block first so that a failing store leaves the chain unchanged
+        storeBlock(block);
+        UndoRecord undoRecord = new UndoRecord(block, prevBlockUtxoPool, newBlockUtxoPool);
+        insertBlock(prevNode, new BlockHeader(block, prevNode.getHeight() + 1), block, undoRecord, newBlockUtxoPool);
+        return true;
+    }
 
-        // satisfies (5)
-        handleDeletingOldBlocksIfNecessary(newBlockHeight);
+    /**
+     * Same as {@link #addBlock(Block)} for the block viewed by {@code view}, such as a record of the
+     * block store. Its transactions are validated in place without being decoded. Once it is valid,
+     * the block is only decoded to retain its body if there is no block store to read it back from.
+     *
+     * @return true if block is successfully added
+     */
+    public synchronized boolean addBlock(BlockView view) {
 
-        // satisfies (6)
-        removeTxsFromTxPool(block);
+        // satisfies (1)
+        byte[] prevBlockHash = BlockCodec.toArray(view.getPrevBlockHash());
+        if (prevBlockHash == null)
+            return false;
+
+        // satisfies (2)
+        byte[] blockHash = view.getHash();
+        BlockNode prevNode = getExtendableNode(prevBlockHash, blockHash);
+        if (prevNode == null)
+            return false;
+        UTXOPool prevBlockUtxoPool = getUtxoPoolAt(prevNode);
+        if (prevBlockUtxoPool == null)
+            return false;
 
+        // satisfies (3), the coinbase address being checked to decode to a key
+        Transaction.Output coinbaseOutput = view.getCoinbaseOutput();
+        if (coinbaseOutput == null)
+            return false;
+        UTXOPool newBlockUtxoPool = getNewBlockUtxoPoolIfValid(view.getTransactions().toArray(new TransactionView[0]),
+                                                               view.getCoinbaseHash(), coinbaseOutput,
+                                                               prevBlockUtxoPool);
+        if (newBlockUtxoPool == null)
+            return false;
+        /// From here the block is validated and will be added to the blockchain.
+
+        // Storing the block first so that a failing store leaves the chain unchanged
+        storeBlock(view);
+        Block block = (blockStore != null) ? null : view.toBlock();
+        UndoRecord undoRecord = new UndoRecord(view.getTransactions(), view.getCoinbaseHash(), prevBlockUtxoPool,
+                                               newBlockUtxoPool);
+        BlockHeader newBlockHeader = new BlockHeader(blockHash, prevBlockHash, view.getMerkleRoot(),
+                                                     prevNode.getHeight() + 1);
+        insertBlock(prevNode, newBlockHeader, block, undoRecord, newBlockUtxoPool);
         return true;
     }
 
-    /** Add a transaction to the transaction pool */
-    public void addTransaction(Transaction tx) {
-        this.transactionPool.addTransaction(tx);
+    /**
+     * Restores the transaction pool from {@code log} and logs the changes to the pool to it from now
+     * on. The recovered transactions are validated again against the UTXO set of the maximum height
+     * block, and the ones which aren't valid anymore are removed from the log.
+     *
+     * The signatures of the whole recovered set are verified first in a single parallel batch, which
+     * fills the signature cache, so admitting the transactions one by one in order of the log only
+     * checks their inputs and fee rates.
+     */
+    public synchronized void restoreTransactionPool(TransactionPoolLog log) {
+        Transaction[] recoveredTxs = log.getRecoveredTransactions().toArray(new Transaction[0]);
+        boolean[] signaturesValid = signatureVerifier.verifyTxs(recoveredTxs, resolveRecoveredOutputs(recoveredTxs),
+                                                                false);
+        // The log holds the transactions in order of addition, so parents come before children
+        for (int i = 0; i < recoveredTxs.length; i++) {
+            if (! signaturesValid[i] || ! admitTransaction(recoveredTxs[i], true))
+                log.logRemoval(recoveredTxs[i].getHash());
+        }
+        transactionPool.setLog(log);
+    }
+
+    /**
+     * Add a transaction to the transaction pool if it is valid against the UTXO set of the maximum
+     * height block extended with the outputs of the pool transactions, spends no output which a
+     * pool transaction spends and pays at least the minimum fee rate of the pool.
+     *
+     * @return true if the transaction is valid and has been added, false otherwise
+     */
+    public synchronized boolean addTransaction(Transaction tx) {
+        return admitTransaction(tx, true);
     }
 
     //
@@ -149,78 +444,606 @@ public class BlockChain {
      * If block transactions are valid returns the new UTXO pool of the block.
      * Returns null otherwise.
      */
-    private UTXOPool getNewBlockUtxoPoolIfValid(Block newBlock, UTXOPool prevBlockUtxoPool) {
-        TxHandler txHandler = new TxHandler(prevBlockUtxoPool);
-        Transaction[] possibleTxs = newBlock.getTransactions().toArray(new Transaction[0]);
-        Transaction[] validTxs = txHandler.handleTxs(possibleTxs);
-        if (possibleTxs.length != validTxs.length) // Failure in validating the txs
+    private UTXOPool getNewBlockUtxoPoolIfValid(TransactionAccessor[] possibleTxs, byte[] coinbaseHash,
+                                                Transaction.Output coinbaseOutput, UTXOPool prevBlockUtxoPool) {
+        TxHandler txHandler = new TxHandler(prevBlockUtxoPool, signatureVerifier);
+        if (! txHandler.handleAllTxs(possibleTxs)) // Failure in validating the txs
             return null;
         else {
             UTXOPool newUtxoPool = txHandler.getUtxoPool();
-            newUtxoPool.addUTXO(new UTXO(newBlock.getCoinbase().getHash(), 0), newBlock.getCoinbase().getOutput(0));
+            newUtxoPool.addUTXO(new UTXO(coinbaseHash, 0), coinbaseOutput);
             return newUtxoPool;
         }
     }
 
     /**
-     * Returns the height of a given block.
+     * Returns the node of the block hashed {@code prevBlockHash} if it exists and can be built on,
+     * and the block hashed {@code blockHash} wasn't already added. Returns null otherwise.
      */
-    private Integer getBlockHeight(ByteArrayWrapper blockHash) {
-        for (Map.Entry<Integer, List<Block>> entry : blockLevelMap.entrySet()) {
-            for (Block value : entry.getValue()){
-                ByteArrayWrapper valueHash = new ByteArrayWrapper(value.getHash());
-                if (blockHash.equals(valueHash))
-                    return entry.getKey();
+    private BlockNode getExtendableNode(byte[] prevBlockHash, byte[] blockHash) {
+        BlockNode prevNode = getNode(prevBlockHash);
+        if (prevNode == null || prevNode.getUndoRecord() == null)
+            return null;
+        if (blockIndex.containsKey(new ByteArrayWrapper(blockHash)))
+            return null;
+        return prevNode;
+    }
+
+    /**
+     * Adds the validated and stored block of {@code header} on top of {@code prevNode}, along with its
+     * body, unless it is null, its undo record and its UTXO set. It follows the steps (4) to (6) of
+     * {@link #addBlock(Block)}.
+     */
+    private void insertBlock(BlockNode prevNode, BlockHeader header, Block block, UndoRecord undoRecord,
+                             UTXOPool utxoPool) {
+        // satisfies (4), storing the main chain hashes of the branch of the block first if it becomes
+        // the maximum height block, so that a failing store leaves the chain unchanged
+        boolean isNewMaxHeightBlock = prevNode.getCumulativeWork() + 1 > getMaxHeightNode().getCumulativeWork();
+        if (isNewMaxHeightBlock)
+            storeMainChainHashes(prevNode, header);
+        BlockNode newNode = new BlockNode(header, prevNode, block, undoRecord);
+        blockIndex.put(new ByteArrayWrapper(header.getHash()), newNode);
+        if (block != null) {
+            bodyNodes.add(newNode);
+            retainedSize += block.getSize();
+        }
+        undoNodes.add(newNode);
+        retainedSize += undoRecord.getEstimatedSize();
+        // satisfies (6) along with the main chain
+        if (isNewMaxHeightBlock)
+            setMaxHeightNode(newNode, utxoPool);
+        else
+            sideNodes.add(newNode);
+
+        // satisfies (5)
+        if (isNewMaxHeightBlock)
+            deleteOldBodies();
+        if (isNewMaxHeightBlock || sideNodes.size() > pruningPolicy.getMaxSideBranchBlocks()
+            || retainedSize > pruningPolicy.getHeapBudget())
+            schedulePruning();
+        if (isNewMaxHeightBlock)
+            scheduleSnapshotIfNecessary();
+    }
+
+    /**
+     * Adds {@code tx} to the transaction pool if it is valid, as described in
+     * {@link #addTransaction(Transaction)}. Its outputs are validated against a UTXO pool of only
+     * the outputs it claims, so admitting a transaction costs O(inputs) whatever the size of the
+     * UTXO set. If {@code checkMinFeeRate} is set, a transaction paying less than the minimum fee
+     * rate of the pool is rejected before its signatures are verified.
+     */
+    private boolean admitTransaction(Transaction tx, boolean checkMinFeeRate) {
+        if (transactionPool.getTransaction(tx.getHash()) != null)
+            return false;
+        UTXOPool claimedUtxos = new UTXOPool();
+        double fee = 0;
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash == null)
+                return false;
+            UTXO utxo = new UTXO(in.prevTxHash, in.outputIndex);
+            // Double spend of an output spent by a pool transaction
+            if (transactionPool.getSpender(utxo) != null)
+                return false;
+            Transaction.Output output = tipUtxoPool.getTxOutput(utxo);
+            if (output == null) {
+                Transaction parent = transactionPool.getTransaction(in.prevTxHash);
+                if (parent != null && in.outputIndex >= 0 && in.outputIndex < parent.numOutputs())
+                    output = parent.getOutput(in.outputIndex);
             }
+            if (output == null)
+                return false;
+            claimedUtxos.addUTXO(utxo, output);
+            fee += output.value;
         }
-        throw new RuntimeException("Failure in getting the block height");
+        for (Transaction.Output op : tx.getOutputs())
+            fee -= op.value;
+        if (checkMinFeeRate && fee / Math.max(tx.getRawTxBytes().length, 1) < transactionPool.getMinFeeRate())
+            return false;
+        if (! new TxHandler(claimedUtxos, signatureVerifier).isValidTx(tx))
+            return false;
+        return transactionPool.addTransaction(tx, fee);
     }
 
     /**
-     * Updates data-structures with the new block.
+     * Returns the outputs claimed by the inputs of each of {@code recoveredTxs}, read from the UTXO
+     * set of the maximum height block or from an earlier recovered transaction, or null for a
+     * transaction with an input claiming neither.
      */
-    private void updateDataStructures(Block newBlock, UTXOPool newBlockUtxoPool,
-                                      ByteArrayWrapper newBlockHash, Integer newBlockHeight) {
+    private Transaction.Output[][] resolveRecoveredOutputs(Transaction[] recoveredTxs) {
+        HashMap<ByteArrayWrapper, Transaction> earlierTxs = new HashMap<>();
+        Transaction.Output[][] claimedOutputs = new Transaction.Output[recoveredTxs.length][];
+        for (int i = 0; i < recoveredTxs.length; i++) {
+            Transaction tx = recoveredTxs[i];
+            Transaction.Output[] outputs = new Transaction.Output[tx.numInputs()];
+            for (int index = 0; index < outputs.length; index++) {
+                Transaction.Input in = tx.getInput(index);
+                if (in.prevTxHash == null)
+                    break;
+                outputs[index] = tipUtxoPool.getTxOutput(new UTXO(in.prevTxHash, in.outputIndex));
+                Transaction parent = earlierTxs.get(new ByteArrayWrapper(in.prevTxHash));
+                if (outputs[index] == null && parent != null && in.outputIndex >= 0
+                    && in.outputIndex < parent.numOutputs())
+                    outputs[index] = parent.getOutput(in.outputIndex);
+                if (outputs[index] == null)
+                    break;
+            }
+            boolean resolved = outputs.length == 0 || outputs[outputs.length - 1] != null;
+            claimedOutputs[i] = resolved ? outputs : null;
+            earlierTxs.put(new ByteArrayWrapper(tx.getHash()), tx);
+        }
+        return claimedOutputs;
+    }
 
-        blockHashMap.put(newBlockHash, newBlock);
-        blockUTXOPoolMap.put(newBlock, newBlockUtxoPool);
-        if (blockLevelMap.containsKey(newBlockHeight))
-            blockLevelMap.get(newBlockHeight).add(newBlock);
-        else {
-            List<Block> newLevel = new ArrayList<>();
-            newLevel.add(newBlock);
-            blockLevelMap.put(newBlockHeight, newLevel);
+    private BlockNode getNode(byte[] blockHash) {
+        if (blockHash == null)
+            return null;
+        return blockIndex.get(new ByteArrayWrapper(blockHash));
+    }
+
+    private BlockNode getMaxHeightNode() {
+        return mainChain.get(mainChain.size() - 1);
+    }
+
+    private BlockNode getMainChainNode(int height) {
+        return mainChain.get(height - rootHeight);
+    }
+
+    private boolean isOnMainChain(BlockNode node) {
+        return node.getHeight() <= getMaxHeight() && getMainChainNode(node.getHeight()) == node;
+    }
+
+    /**
+     * Returns the ancestor at {@code height} of {@code node}, walking the parents only until the
+     * main chain is reached.
+     */
+    private BlockNode getAncestor(BlockNode node, int height) {
+        while (node.getHeight() > height && ! isOnMainChain(node))
+            node = node.getParent();
+        return isOnMainChain(node) ? getMainChainNode(height) : node;
+    }
+
+    /**
+     * Makes {@code node} the maximum height block, rewriting the main chain from the fork point with
+     * its previous maximum height block, and reconciles the transaction pool with the blocks
+     * connected and disconnected.
+     */
+    private void setMaxHeightNode(BlockNode node, UTXOPool utxoPool) {
+        List<BlockNode> branch = new ArrayList<>();
+        for (BlockNode n = node; ! isOnMainChain(n); n = n.getParent())
+            branch.add(n);
+        Collections.reverse(branch);
+        int forkHeight = node.getHeight() - branch.size();
+        List<BlockNode> disconnected = mainChain.subList(forkHeight - rootHeight + 1, mainChain.size());
+        List<BlockNode> disconnectedNodes = new ArrayList<>(disconnected);
+        sideNodes.addAll(disconnected);
+        disconnected.clear();
+        for (BlockNode n : branch) {
+            mainChain.add(n);
+            sideNodes.remove(n);
+        }
+        tipUtxoPool = utxoPool;
+        reconcileTxPool(branch, disconnectedNodes);
+    }
+
+    /**
+     * Updates the transaction pool after the main chain switched from the {@code disconnected}
+     * blocks to the {@code connected} ones, both from the fork point up:
+     * 1) The transactions of the connected blocks leave the pool, along with the pool transactions
+     *    conflicting with them and their descendants.
+     * 2) The transactions of the disconnected blocks go back to the pool, unless they are confirmed
+     *    again or not valid anymore against the new main chain and the pool. The transactions of a
+     *    block go back parents first, whatever their order in the block, and they are not held to
+     *    the minimum fee rate of the pool, which only limits the transactions relayed to it.
+     * 3) The pool transactions spending an output of a disconnected transaction which didn't go
+     *    back, or of a disconnected coinbase, are evicted along with their descendants.
+     * The work only depends on the transactions of these blocks, not on the size of the pool. The
+     * blocks whose bodies are neither retained nor stored are skipped.
+     */
+    private void reconcileTxPool(List<BlockNode> connected, List<BlockNode> disconnected) {
+        // satisfies (1)
+        for (BlockNode node : connected) {
+            List<? extends TransactionAccessor> txs = getTransactions(node);
+            if (txs != null)
+                removeTxsFromTxPool(txs);
+        }
+        for (BlockNode node : disconnected) {
+            Block block = getBlock(node.getHash());
+            if (block == null)
+                continue;
+            for (Transaction tx : sortParentsFirst(block.getTransactions())) {
+                // satisfies (2)
+                if (admitTransaction(tx, false) || transactionPool.getTransaction(tx.getHash()) != null)
+                    continue;
+                // satisfies (3)
+                evictSpenders(tx);
+            }
+            evictSpenders(block.getCoinbase());
+        }
+    }
+
+    /**
+     * Returns {@code txs} ordered so that each transaction comes after the ones of {@code txs} whose
+     * outputs it spends, keeping the order of {@code txs} otherwise where possible. Takes
+     * O(inputs) time.
+     */
+    private static List<Transaction> sortParentsFirst(List<Transaction> txs) {
+        HashMap<ByteArrayWrapper, Integer> indices = new HashMap<>();
+        for (int i = 0; i < txs.size(); i++)
+            indices.put(new ByteArrayWrapper(txs.get(i).getHash()), i);
+        // The number of inputs of each transaction spending a transaction not sorted yet, and the
+        // transactions spending each transaction of txs
+        int[] unsortedParents = new int[txs.size()];
+        HashMap<Integer, List<Integer>> children = new HashMap<>();
+        for (int i = 0; i < txs.size(); i++) {
+            for (Transaction.Input in : txs.get(i).getInputs()) {
+                Integer parent = (in.prevTxHash != null) ? indices.get(new ByteArrayWrapper(in.prevTxHash)) : null;
+                if (parent == null || parent == i)
+                    continue;
+                unsortedParents[i]++;
+                children.computeIfAbsent(parent, k -> new ArrayList<>()).add(i);
+            }
+        }
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < txs.size(); i++) {
+            if (unsortedParents[i] == 0)
+                ready.add(i);
+        }
+        List<Transaction> sorted = new ArrayList<>(txs.size());
+        while (! ready.isEmpty()) {
+            int i = ready.poll();
+            sorted.add(txs.get(i));
+            for (int child : children.getOrDefault(i, Collections.emptyList())) {
+                if (--unsortedParents[child] == 0)
+                    ready.add(child);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Evicts the pool transactions spending an output of {@code tx} which is not in the UTXO set of
+     * the maximum height block, along with their descendants.
+     */
+    private void evictSpenders(Transaction tx) {
+        for (int index = 0; index < tx.numOutputs(); index++) {
+            UTXO utxo = new UTXO(tx.getHash(), index);
+            Transaction spender = transactionPool.getSpender(utxo);
+            if (spender != null && ! tipUtxoPool.contains(utxo))
+                transactionPool.removeTransactionAndDescendants(spender.getHash());
         }
     }
 
     /**
-     *  Deletes blocks from memory to satisfy the cutoff age constraint if necessary
+     * Returns the UTXO set of the block of {@code node}, or null if the block is at or forks from the
+     * main chain deeper than the cut-off age. It is rebuilt from a copy of the UTXO set of the
+     * maximum height block by disconnecting its blocks down to the fork point and connecting the
+     * blocks of the other branch, so the cost only depends on the transactions of these blocks.
      */
-    private void handleDeletingOldBlocksIfNecessary(Integer newBlockHeight) {
-        if (newBlockHeight <= this.maximumHeight)
+    private UTXOPool getUtxoPoolAt(BlockNode node) {
+        int lowestLevelToBeKept = getMaxHeight() - pruningPolicy.getCutOffAge();
+        if (node.getHeight() < lowestLevelToBeKept)
+            return null;
+        List<UndoRecord> toConnect = new ArrayList<>();
+        for (; ! isOnMainChain(node); node = node.getParent()) {
+            if (node.getHeight() <= lowestLevelToBeKept || node.getUndoRecord() == null)
+                return null;
+            toConnect.add(node.getUndoRecord());
+        }
+        if (node.getHeight() < lowestLevelToBeKept)
+            return null;
+        UTXOPool utxoPool = new UTXOPool(tipUtxoPool);
+        for (int height = getMaxHeight(); height > node.getHeight(); height--)
+            getUndoRecord(getMainChainNode(height)).disconnect(utxoPool);
+        for (int i = toConnect.size() - 1; i >= 0; i--)
+            toConnect.get(i).connect(utxoPool);
+        return utxoPool;
+    }
+
+    private static UndoRecord getUndoRecord(BlockNode node) {
+        UndoRecord undoRecord = node.getUndoRecord();
+        if (undoRecord == null)
+            throw new RuntimeException("Failure in getting the undo record of a block");
+        return undoRecord;
+    }
+
+    /** Returns the UTXO set of {@code genesisBlock}: the outputs of its transactions and its coinbase */
+    private static UTXOPool createGenesisUtxoPool(Block genesisBlock) {
+        UTXOPool genesisBlockUtxoPool = new UTXOPool();
+        for (Transaction tx : genesisBlock.getTransactions()) {
+            int index = 0;
+            for (Transaction.Output txOutput : tx.getOutputs()) {
+                UTXO newUtxo = new UTXO(tx.getHash(), index++);
+                genesisBlockUtxoPool.addUTXO(newUtxo, txOutput);
+            }
+        }
+        // Adding coinbase transaction if it exists.
+        Transaction coinBaseTransaction = genesisBlock.getCoinbase();
+        if (coinBaseTransaction != null && coinBaseTransaction.getOutput(0).address != null
+            && coinBaseTransaction.getOutput(0).value > 0) {
+
+            UTXO coinBaseUtxo = new UTXO(coinBaseTransaction.getHash(), 0);
+            genesisBlockUtxoPool.addUTXO(coinBaseUtxo, coinBaseTransaction.getOutput(0));
+        }
+        return genesisBlockUtxoPool;
+    }
+
+    /** Returns the block of {@code snapshot} read from {@code blockStore} */
+    private static Block getSnapshotBlock(UtxoSnapshot snapshot, BlockStore blockStore) {
+        if (blockStore == null)
+            throw new IllegalArgumentException("A block store is needed to restore a UTXO snapshot");
+        try {
+            Block block = blockStore.getBlock(snapshot.getBlockHash());
+            if (block == null)
+                throw new IllegalArgumentException("The block store doesn't hold the block of the snapshot");
+            return block;
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in reading a block from the block store", x);
+        }
+    }
+
+    /**
+     * Appends the first block to the block store, or adds the main chain blocks of the store on top
+     * of it if the store already holds its chain.
+     */
+    private void restoreFromBlockStore() {
+        BlockNode rootNode = mainChain.get(0);
+        byte[] storedRootHash = blockStore.getMainChainHash(rootHeight);
+        if (storedRootHash == null) {
+            storeBlock(rootNode.getBlock());
+            storeMainChainHash(rootNode);
             return;
-        Integer levelToBeRemoved = newBlockHeight - CUT_OFF_AGE - 1;
-        if (levelToBeRemoved > 0) {
-            for (Block block : blockLevelMap.get(levelToBeRemoved)) {
-                ByteArrayWrapper blockHash = new ByteArrayWrapper(block.getHash());
-                if (blockHashMap.remove(blockHash) == null)
-                    throw new RuntimeException("Failure in deleting from blockHashMap");
-
-                if (blockUTXOPoolMap.remove(block) == null)
-                    throw new RuntimeException("Failure in deleting from blockUTXOPoolMap");
+        }
+        if (! Arrays.equals(storedRootHash, rootNode.getHash()))
+            throw new IllegalArgumentException("The block store holds another chain");
+        try {
+            int storedHeight = blockStore.getMainChainHeight();
+            for (int height = rootHeight + 1; height <= storedHeight; height++) {
+                if (! addBlock(blockStore.getMainChainBlockView(height)))
+                    throw new RuntimeException("Failure in restoring the block at height " + height);
             }
-            if (blockLevelMap.remove(levelToBeRemoved) == null)
-                throw new RuntimeException("Failure in deleting from blockLevelMap");
-            System.gc();
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in reading a block from the block store", x);
+        }
+    }
+
+    private void storeBlock(Block block) {
+        if (blockStore == null)
+            return;
+        try {
+            blockStore.append(block);
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in writing a block to the block store", x);
         }
-        this.maximumHeight = newBlockHeight;
+    }
+
+    private void storeBlock(BlockView view) {
+        if (blockStore == null)
+            return;
+        try {
+            blockStore.append(view);
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in writing a block to the block store", x);
+        }
+    }
+
+    /**
+     * Records in the block store the branch of the block of {@code header}, whose parent is
+     * {@code prevNode}, as the main chain from its fork point up. All the hashes are written before
+     * the main chain is rewritten in memory.
+     */
+    private void storeMainChainHashes(BlockNode prevNode, BlockHeader header) {
+        if (blockStore == null)
+            return;
+        List<BlockNode> branch = new ArrayList<>();
+        for (BlockNode n = prevNode; ! isOnMainChain(n); n = n.getParent())
+            branch.add(n);
+        Collections.reverse(branch);
+        try {
+            for (BlockNode n : branch)
+                blockStore.setMainChainHash(n.getHeight(), n.getHash());
+            blockStore.setMainChainHash(header.getHeight(), header.getHash());
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in writing a block to the block store", x);
+        }
+    }
+
+    private void storeMainChainHash(BlockNode node) {
+        if (blockStore == null)
+            return;
+        try {
+            blockStore.setMainChainHash(node.getHeight(), node.getHash());
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in writing a block to the block store", x);
+        }
+    }
+
+    /**
+     * Drops the bodies of the blocks deeper than the body retention depth. The headers are always
+     * kept.
+     */
+    private void deleteOldBodies() {
+        int bodyLevelToBeRemoved = getMaxHeight() - pruningPolicy.getBodyRetentionDepth() - 1;
+        while (! bodyNodes.isEmpty() && bodyNodes.peek().getHeight() <= bodyLevelToBeRemoved)
+            deleteBody(bodyNodes.poll());
+    }
+
+    /**
+     * Writes a snapshot of the UTXO set of the new maximum height block in the background if its
+     * height is a multiple of the snapshot interval. The block store is synced first so the block
+     * of the snapshot is durable.
+     */
+    private void scheduleSnapshotIfNecessary() {
+        if (snapshotFile == null || getMaxHeight() % snapshotInterval != 0)
+            return;
+        if (! snapshotInProgress.compareAndSet(false, true))
+            return;
+        Path file = snapshotFile;
+        BlockNode node = getMaxHeightNode();
+        UTXOPool utxoPool = new UTXOPool(tipUtxoPool);
+        snapshotTask = snapshotExecutor.submit(() -> {
+            try {
+                if (blockStore != null)
+                    blockStore.sync();
+                UtxoSnapshot.write(file, node.getHash(), node.getHeight(), utxoPool);
+                return null;
+            } finally {
+                snapshotInProgress.set(false);
+            }
+        });
+    }
+
+    private static void await(Future<?> task, String failure) {
+        if (task == null)
+            return;
+        try {
+            task.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException x) {
+            throw new RuntimeException(failure, x.getCause());
+        }
+    }
+
+    /** Schedules a pruning of the chain state unless one is already pending */
+    private void schedulePruning() {
+        if (pruningScheduled.compareAndSet(false, true))
+            pruningTask = pruningExecutor.submit(this::prune);
+    }
+
+    /**
+     * Prunes the chain state which is not needed anymore or exceeds the pruning policy:
+     *
+     * 1) Delete the undo records of the blocks deeper than the cut-off age, which can't be built on.
+     * 2) Evict the side branches forking deeper than the cut-off age, which can't overtake the
+     *    maximum height block.
+     * 3) Evict the side branches with the least work beyond the maximum number of side blocks.
+     * 4) Drop the oldest bodies, then evict the side branches with the least work, until the retained
+     *    chain state fits in the heap budget. The undo records of the main chain are always kept.
+     */
+    private synchronized void prune() {
+        pruningScheduled.set(false);
+        int lowestLevelToBeKept = getMaxHeight() - pruningPolicy.getCutOffAge();
+
+        // satisfies (1)
+        while (! undoNodes.isEmpty() && undoNodes.peek().getHeight() < lowestLevelToBeKept) {
+            BlockNode node = undoNodes.poll();
+            if (sideNodes.contains(node))
+                evict(node);
+            else
+                deleteUndoRecord(node);
+        }
+
+        // satisfies (2)
+        List<BlockNode> sideNodesByHeight = new ArrayList<>(sideNodes);
+        sideNodesByHeight.sort(Comparator.comparingInt(BlockNode::getHeight));
+        for (BlockNode node : sideNodesByHeight) {
+            // Already evicted along with an ancestor
+            if (! sideNodes.contains(node))
+                continue;
+            BlockNode parent = node.getParent();
+            boolean isStale = isOnMainChain(parent) ? parent.getHeight() < lowestLevelToBeKept
+                                                    : parent.getUndoRecord() == null;
+            if (isStale)
+                evict(node);
+        }
+
+        // satisfies (3)
+        PriorityQueue<BlockNode> sideLeaves = new PriorityQueue<>(Comparator.comparingLong(BlockNode::getCumulativeWork));
+        for (BlockNode node : sideNodes) {
+            if (! hasRetainedChild(node))
+                sideLeaves.add(node);
+        }
+        while (sideNodes.size() > pruningPolicy.getMaxSideBranchBlocks())
+            evictSideLeaf(sideLeaves);
+
+        // satisfies (4)
+        BlockNode maxHeightNode = getMaxHeightNode();
+        while (retainedSize > pruningPolicy.getHeapBudget() && ! bodyNodes.isEmpty()
+               && bodyNodes.peek() != maxHeightNode)
+            deleteBody(bodyNodes.poll());
+        while (retainedSize > pruningPolicy.getHeapBudget() && ! sideLeaves.isEmpty())
+            evictSideLeaf(sideLeaves);
+    }
+
+    private boolean hasRetainedChild(BlockNode node) {
+        for (BlockNode child : node.getChildren()) {
+            if (child.getUndoRecord() != null)
+                return true;
+        }
+        return false;
+    }
+
+    /** Evicts the side leaf with the least work, its parent becoming a leaf if it has no other child */
+    private void evictSideLeaf(PriorityQueue<BlockNode> sideLeaves) {
+        BlockNode leaf = sideLeaves.poll();
+        evict(leaf);
+        BlockNode parent = leaf.getParent();
+        if (sideNodes.contains(parent) && ! hasRetainedChild(parent))
+            sideLeaves.add(parent);
     }
 
     /**
-     * Removes all the transactions from transaction pool of a given block
+     * Evicts the side block of {@code node}, which can't be built on anymore, along with its
+     * descendants: their bodies and undo records are dropped and their nodes leave the block index,
+     * so the side branches sent below the maximum height block don't grow the index without bound.
      */
-    private void removeTxsFromTxPool (Block newBlock) {
-        for (Transaction tx : newBlock.getTransactions())
+    private void evict(BlockNode node) {
+        node.getParent().removeChild(node);
+        ArrayDeque<BlockNode> evicted = new ArrayDeque<>();
+        evicted.add(node);
+        while (! evicted.isEmpty()) {
+            BlockNode n = evicted.poll();
+            deleteBody(n);
+            deleteUndoRecord(n);
+            sideNodes.remove(n);
+            blockIndex.remove(new ByteArrayWrapper(n.getHash()));
+            evicted.addAll(n.getChildren());
+        }
+    }
+
+    private void deleteUndoRecord(BlockNode node) {
+        UndoRecord undoRecord = node.getUndoRecord();
+        if (undoRecord != null) {
+            retainedSize -= undoRecord.getEstimatedSize();
+            node.clearUndoRecord();
+        }
+    }
+
+    private void deleteBody(BlockNode node) {
+        Block block = node.getBlock();
+        if (block != null) {
+            retainedSize -= block.getSize();
+            node.clearBlock();
+        }
+    }
+
+    /**
+     * Returns the transactions of the block of {@code node}: those of its retained body, or else views
+     * over its record in the block store, or null if the body is neither retained nor stored.
+     */
+    private List<? extends TransactionAccessor> getTransactions(BlockNode node) {
+        if (node.getBlock() != null)
+            return node.getBlock().getTransactions();
+        if (blockStore == null)
+            return null;
+        try {
+            BlockView view = blockStore.getBlockView(node.getHash());
+            return (view != null) ? view.getTransactions() : null;
+        } catch (IOException x) {
+            throw new UncheckedIOException("Failure in reading a block from the block store", x);
+        }
+    }
+
+    /**
+     * Removes the transactions {@code txs} of a block connected to the main chain from the transaction
+     * pool along with the pool transactions conflicting with them and their descendants. The pool
+     * transactions spending the outputs of the block transactions stay, since those outputs are
+     * now confirmed.
+     */
+    private void removeTxsFromTxPool (List<? extends TransactionAccessor> txs) {
+        for (TransactionAccessor tx : txs) {
             transactionPool.removeTransaction(tx.getHash());
+            transactionPool.removeConflicts(tx);
+        }
     }
 }
\ No newline at end of file
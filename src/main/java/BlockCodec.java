@@ -0,0 +1,215 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Encodes blocks and transactions in a compact self-delimiting binary format which can be decoded
+ * back, unlike the raw bytes which are hashed and signed:
+ *
+ * <pre>
+ * block       = prevBlockHash coinbase txCount transaction*
+ * coinbase    = output
+ * transaction = inputCount input* outputCount output*
+ * input       = prevTxHashLength signatureLength prevTxHash outputIndex signature
+ * output      = scheme addressLength prefixLength value address
+ * </pre>
+ *
+ * Counts and lengths are unsigned LEB128 varints, and the length of an array which may be null is
+ * stored plus one (0 for null). The output index is a 4-byte int and the value an 8-byte double,
+ * as in the raw bytes. The address is the key serialized by its {@link SignatureScheme}, and the
+ * prefix length is the length of its first field needed to deserialize it.
+ *
+ * The fields of an input following its lengths, and the value and address of an output, are laid
+ * out exactly as in the raw bytes. So {@link TransactionView} and {@link BlockView} hash and verify
+ * the encoding in place. Hashes are not stored, they are recomputed when decoding.
+ */
+public class BlockCodec {
+
+    /** Largest number of bytes of a varint holding an int */
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private BlockCodec() {
+    }
+
+    /** Returns the encoding of the finalized {@code block} */
+    public static byte[] encode(Block block) {
+        Transaction.Output coinbase = block.getCoinbase().getOutput(0);
+        int size = getNullableSize(block.getPrevBlockHash()) + getSize(coinbase)
+                   + getVarintSize(block.getTransactions().size());
+        for (Transaction tx : block.getTransactions())
+            size += getSize(tx);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putNullable(buffer, block.getPrevBlockHash());
+        putOutput(buffer, coinbase);
+        putVarint(buffer, block.getTransactions().size());
+        for (Transaction tx : block.getTransactions())
+            putTransaction(buffer, tx);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes and finalizes the block encoded in the remaining bytes of {@code buffer}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static Block decode(ByteBuffer buffer) {
+        return BlockView.wrap(buffer).toBlock();
+    }
+
+    /** Returns the encoding of the finalized {@code tx} */
+    public static byte[] encodeTransaction(Transaction tx) {
+        ByteBuffer buffer = ByteBuffer.allocate(getSize(tx));
+        putTransaction(buffer, tx);
+        return buffer.array();
+    }
+
+    /**
+     * Decodes and finalizes the transaction encoded in the remaining bytes of {@code buffer}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static Transaction decodeTransaction(ByteBuffer buffer) {
+        return TransactionView.wrap(buffer).toTransaction();
+    }
+
+    ///
+    /// Helper methods, the decoding ones are shared with the views
+    ///
+
+    private static int getSize(Transaction tx) {
+        int size = getVarintSize(tx.numInputs());
+        for (Transaction.Input in : tx.getInputs())
+            size += getNullableSize(in.prevTxHash) + Integer.BYTES + getNullableSize(in.signature);
+        size += getVarintSize(tx.numOutputs());
+        for (Transaction.Output op : tx.getOutputs())
+            size += getSize(op);
+        return size;
+    }
+
+    private static int getSize(Transaction.Output op) {
+        Address address = op.getAddress();
+        return 1 + getVarintSize(address.getRawBytes().length) + getVarintSize(address.getPrefixLength())
+               + Double.BYTES + address.getRawBytes().length;
+    }
+
+    private static void putTransaction(ByteBuffer buffer, Transaction tx) {
+        putVarint(buffer, tx.numInputs());
+        for (Transaction.Input in : tx.getInputs()) {
+            putVarint(buffer, (in.prevTxHash != null) ? in.prevTxHash.length + 1 : 0);
+            putVarint(buffer, (in.signature != null) ? in.signature.length + 1 : 0);
+            if (in.prevTxHash != null)
+                buffer.put(in.prevTxHash);
+            buffer.putInt(in.outputIndex);
+            if (in.signature != null)
+                buffer.put(in.signature);
+        }
+        putVarint(buffer, tx.numOutputs());
+        for (Transaction.Output op : tx.getOutputs())
+            putOutput(buffer, op);
+    }
+
+    private static void putOutput(ByteBuffer buffer, Transaction.Output op) {
+        Address address = op.getAddress();
+        buffer.put((byte) address.getScheme().ordinal());
+        putVarint(buffer, address.getRawBytes().length);
+        putVarint(buffer, address.getPrefixLength());
+        buffer.putDouble(op.value);
+        buffer.put(address.getRawBytes());
+    }
+
+    private static int getNullableSize(byte[] bytes) {
+        return (bytes != null) ? getVarintSize(bytes.length + 1) + bytes.length : 1;
+    }
+
+    private static void putNullable(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null)
+            putVarint(buffer, 0);
+        else {
+            putVarint(buffer, bytes.length + 1);
+            buffer.put(bytes);
+        }
+    }
+
+    private static int getVarintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /** Reads a varint which must fit in a non-negative int */
+    static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT_SIZE; i++) {
+            int b = buffer.get();
+            value |= (b & 0x7f) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new IllegalArgumentException("Varint overflow");
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint overflow");
+    }
+
+    /** Reads a count of elements, each taking at least one of the remaining bytes */
+    static int getCount(ByteBuffer buffer) {
+        int count = getVarint(buffer);
+        if (count > buffer.remaining())
+            throw new IllegalArgumentException("Invalid count " + count);
+        return count;
+    }
+
+    static void skip(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid length " + length);
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Reads the output at the position of {@code buffer} into {@code outputs} from {@code index}:
+     * the offset of its value from {@code start}, its address length, its prefix length and the
+     * ordinal of its scheme.
+     */
+    static void readOutput(ByteBuffer buffer, int start, int[] outputs, int index) {
+        int ordinal = buffer.get();
+        if (ordinal < 0 || ordinal >= SignatureScheme.values().length)
+            throw new IllegalArgumentException("Invalid signature scheme " + ordinal);
+        int addressLength = getVarint(buffer);
+        int prefixLength = getVarint(buffer);
+        if (prefixLength > addressLength)
+            throw new IllegalArgumentException("Invalid prefix length " + prefixLength);
+        outputs[index] = buffer.position() - start;
+        outputs[index + 1] = addressLength;
+        outputs[index + 2] = prefixLength;
+        outputs[index + 3] = ordinal;
+        skip(buffer, Double.BYTES);
+        skip(buffer, addressLength);
+    }
+
+    /** Returns the remaining bytes of {@code buffer}, or null if it is null */
+    static byte[] toArray(ByteBuffer buffer) {
+        if (buffer == null)
+            return null;
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException("SHA-256 is not available", x);
+        }
+    }
+}
@@ -1,12 +1,37 @@
 
 import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 
 public class BlockHandler {
+
+    /** Default maximum size in bytes of the serialized blocks created */
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 1_000_000;
+    /**
+     * Number of consecutive pool transactions not selected, because they are too large for the
+     * rest of the block, not valid or waiting for a parent, after which block creation stops
+     * looking for more
+     */
+    private static final int MAX_SKIPPED_TXS = 64;
+
     private BlockChain blockChain;
+    private final int maxBlockSize;
 
     /** assume blockChain has the genesis block */
     public BlockHandler(BlockChain blockChain) {
+        this(blockChain, DEFAULT_MAX_BLOCK_SIZE);
+    }
+
+    /** Creates blocks whose serialized size is at most {@code maxBlockSize} bytes */
+    public BlockHandler(BlockChain blockChain, int maxBlockSize) {
+        if (maxBlockSize <= 0)
+            throw new IllegalArgumentException("Maximum block size must be positive");
         this.blockChain = blockChain;
+        this.maxBlockSize = maxBlockSize;
     }
 
     /**
@@ -20,18 +45,27 @@ public class BlockHandler {
         return blockChain.addBlock(block);
     }
 
-    /** create a new {@code block} over the max height {@code block} */
+    /**
+     * create a new {@code block} over the max height {@code block}, filled with the valid pool
+     * transactions from the highest fee rate down as long as they fit in the maximum block size.
+     * The transactions are selected from a copy of the pool taken along with the max height block
+     * and its UTXO pool under the lock of the blockchain, so transactions and blocks can keep being
+     * added meanwhile.
+     */
     public Block createBlock(PublicKey myAddress) {
-        Block parent = blockChain.getMaxHeightBlock();
+        Block parent;
+        UTXOPool uPool;
+        TransactionPool txPool;
+        synchronized (blockChain) {
+            parent = blockChain.getMaxHeightBlock();
+            uPool = blockChain.getMaxHeightUTXOPool();
+            txPool = new TransactionPool(blockChain.getTransactionPool());
+        }
         byte[] parentHash = parent.getHash();
         Block current = new Block(parentHash, myAddress);
-        UTXOPool uPool = blockChain.getMaxHeightUTXOPool();
-        TransactionPool txPool = blockChain.getTransactionPool();
-        TxHandler handler = new TxHandler(uPool);
-        Transaction[] txs = txPool.getTransactions().toArray(new Transaction[0]);
-        Transaction[] rTxs = handler.handleTxs(txs);
-        for (int i = 0; i < rTxs.length; i++)
-            current.addTransaction(rTxs[i]);
+        TxHandler handler = new TxHandler(uPool, blockChain.getSignatureVerifier());
+        for (Transaction tx : selectTransactions(txPool, handler, maxBlockSize - current.getSize()))
+            current.addTransaction(tx);
 
         current.finalize();
         if (blockChain.addBlock(current))
@@ -40,8 +74,72 @@ public class BlockHandler {
             return null;
     }
 
-    /** process a {@code Transaction} */
-    public void processTx(Transaction tx) {
-        blockChain.addTransaction(tx);
+    /**
+     * process a {@code Transaction}, adding it to the transaction pool if it is valid
+     *
+     * @return true if the transaction is valid and has been added, false otherwise
+     */
+    public boolean processTx(Transaction tx) {
+        return blockChain.addTransaction(tx);
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /**
+     * Selects the transactions of a new block greedily from the highest fee rate down, skipping the
+     * ones which don't fit in {@code sizeLimit} bytes or are not valid against the UTXO pool of
+     * {@code handler}, which is updated with the selected ones. A transaction claiming an output of
+     * a pool transaction not selected yet waits for it, and is considered again right after it.
+     * The selection stops after {@link #MAX_SKIPPED_TXS} candidates in a row are not selected,
+     * whether they don't fit, are not valid or wait for a parent. So for k selected transactions
+     * it considers O(k) candidates, each of them re-examined at most once per selected parent, and
+     * doesn't go through the whole pool, e.g. through the descendants of a package too large.
+     */
+    private static List<Transaction> selectTransactions(TransactionPool txPool, TxHandler handler, int sizeLimit) {
+        List<Transaction> selected = new ArrayList<>();
+        HashSet<ByteArrayWrapper> selectedHashes = new HashSet<>();
+        HashMap<ByteArrayWrapper, List<Transaction>> waiting = new HashMap<>();
+        ArrayDeque<Transaction> ready = new ArrayDeque<>();
+        Iterator<Transaction> candidates = txPool.getTransactionsByFeeRate();
+        int size = 0;
+        int skipped = 0;
+        while (skipped < MAX_SKIPPED_TXS && (! ready.isEmpty() || candidates.hasNext())) {
+            Transaction tx = ready.isEmpty() ? candidates.next() : ready.poll();
+            ByteArrayWrapper parent = getUnselectedParent(tx, txPool, selectedHashes);
+            if (parent != null) {
+                waiting.computeIfAbsent(parent, k -> new ArrayList<>()).add(tx);
+                skipped++;
+                continue;
+            }
+            int txSize = tx.getRawTxBytes().length;
+            if (size + txSize > sizeLimit || handler.handleTxs(new Transaction[] {tx}).length == 0) {
+                skipped++;
+                continue;
+            }
+            skipped = 0;
+            selected.add(tx);
+            size += txSize;
+            ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
+            selectedHashes.add(hash);
+            List<Transaction> children = waiting.remove(hash);
+            if (children != null)
+                ready.addAll(children);
+        }
+        return selected;
+    }
+
+    /** Returns the hash of a pool transaction claimed by {@code tx} which isn't selected, or null */
+    private static ByteArrayWrapper getUnselectedParent(Transaction tx, TransactionPool txPool,
+                                                        HashSet<ByteArrayWrapper> selectedHashes) {
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash == null)
+                continue;
+            ByteArrayWrapper hash = new ByteArrayWrapper(in.prevTxHash);
+            if (! selectedHashes.contains(hash) && txPool.getTransaction(in.prevTxHash) != null)
+                return hash;
+        }
+        return null;
     }
 }
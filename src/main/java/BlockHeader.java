@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The compact header of a block: the previous block hash and the Merkle root of its transactions,
+ * which are the fields committed to by the block hash, along with the height of the block in the
+ * chain. A header takes a few dozen bytes regardless of the size of the block body, so the chain can
+ * keep headers for deep history after dropping the bodies.
+ */
+public class BlockHeader {
+
+    private final byte[] hash;
+    private final byte[] prevBlockHash;
+    private final byte[] merkleRoot;
+    private final int height;
+
+    public BlockHeader(byte[] hash, byte[] prevBlockHash, byte[] merkleRoot, int height) {
+        this.hash = hash.clone();
+        this.prevBlockHash = (prevBlockHash == null) ? null : prevBlockHash.clone();
+        this.merkleRoot = merkleRoot.clone();
+        this.height = height;
+    }
+
+    /** Creates the header of the finalized {@code block} at {@code height} */
+    public BlockHeader(Block block, int height) {
+        this(block.getHash(), block.getPrevBlockHash(), block.getMerkleRoot(), height);
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public byte[] getPrevBlockHash() {
+        return prevBlockHash;
+    }
+
+    public byte[] getMerkleRoot() {
+        return merkleRoot;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return true if the hash of this header matches its fields */
+    public boolean isValid() {
+        return Arrays.equals(hash, computeHash(prevBlockHash, merkleRoot));
+    }
+
+    /**
+     * @return true if every header of {@code headers} is valid and extends the previous one by one
+     *         height. This only needs the headers, so a header chain can be checked before fetching
+     *         the block bodies.
+     */
+    public static boolean isValidChain(List<BlockHeader> headers) {
+        BlockHeader prev = null;
+        for (BlockHeader header : headers) {
+            if (! header.isValid())
+                return false;
+            if (prev != null && (! Arrays.equals(header.prevBlockHash, prev.hash) || header.height != prev.height + 1))
+                return false;
+            prev = header;
+        }
+        return true;
+    }
+
+    /** Returns the hashed bytes of a header: {@code prevBlockHash} followed by {@code merkleRoot} */
+    public static byte[] getRawHeader(byte[] prevBlockHash, byte[] merkleRoot) {
+        int size = (prevBlockHash != null ? prevBlockHash.length : 0) + merkleRoot.length;
+        ByteBuffer header = ByteBuffer.allocate(size);
+        if (prevBlockHash != null)
+            header.put(prevBlockHash);
+        header.put(merkleRoot);
+        return header.array();
+    }
+
+    /** Returns the hash of a header made of {@code prevBlockHash} and {@code merkleRoot} */
+    public static byte[] computeHash(byte[] prevBlockHash, byte[] merkleRoot) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(getRawHeader(prevBlockHash, merkleRoot));
+            return md.digest();
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException("SHA-256 is not available", x);
+        }
+    }
+}
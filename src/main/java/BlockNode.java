@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node of the block index: the header of a valid block linked to its parent and children. The
+ * node also holds the body and the undo record of the block as long as the blockchain retains them.
+ */
+public class BlockNode {
+
+    private final BlockHeader header;
+    private final BlockNode parent;
+    private List<BlockNode> children;
+    /**
+     * The work of the chain ending with this block, every block counts for one unit of work, including
+     * the blocks below a first block restored from a snapshot
+     */
+    private final long cumulativeWork;
+    private Block block;
+    private UndoRecord undoRecord;
+
+    /** Creates the node of the first block of the blockchain when {@code parent} is null */
+    public BlockNode(BlockHeader header, BlockNode parent, Block block, UndoRecord undoRecord) {
+        this.header = header;
+        this.parent = parent;
+        this.children = Collections.emptyList();
+        this.cumulativeWork = (parent == null) ? header.getHeight() : parent.cumulativeWork + 1;
+        this.block = block;
+        this.undoRecord = undoRecord;
+        if (parent != null)
+            parent.addChild(this);
+    }
+
+    public BlockHeader getHeader() {
+        return header;
+    }
+
+    public byte[] getHash() {
+        return header.getHash();
+    }
+
+    public int getHeight() {
+        return header.getHeight();
+    }
+
+    /** Returns the node of the previous block, or null for the genesis block */
+    public BlockNode getParent() {
+        return parent;
+    }
+
+    public List<BlockNode> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public long getCumulativeWork() {
+        return cumulativeWork;
+    }
+
+    /** Returns the body of the block, or null if it isn't retained anymore */
+    public Block getBlock() {
+        return block;
+    }
+
+    /** Returns the undo record of the block, or null if it isn't retained anymore */
+    public UndoRecord getUndoRecord() {
+        return undoRecord;
+    }
+
+    void clearBlock() {
+        block = null;
+    }
+
+    void clearUndoRecord() {
+        undoRecord = null;
+    }
+
+    /** Detaches {@code child}, evicted from the block index along with its descendants */
+    void removeChild(BlockNode child) {
+        children.remove(child);
+    }
+
+    private void addChild(BlockNode child) {
+        if (children.isEmpty())
+            children = new ArrayList<>(1);
+        children.add(child);
+    }
+}
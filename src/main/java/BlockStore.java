@@ -0,0 +1,405 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only store of blocks on disk.
+ *
+ * The blocks are appended, encoded by {@link BlockCodec}, to segment files of bounded size
+ * ({@code blk00000.dat}, {@code blk00001.dat}, ...), each record being its length, the CRC-32 of the
+ * encoded block and the encoded block. Two compact files index the records:
+ *
+ * - {@code index.dat} appends, for each block, its hash followed by the segment, offset and length
+ *   of its record.
+ * - {@code heights.dat} holds the hash of the main chain block at each height, at offset
+ *   (height - 1) * 32.
+ *
+ * The writes are only forced to disk once {@code groupCommitSize} blocks are pending, or by
+ * {@link #sync()}, so a single fsync commits a group of blocks. Since the segments and the index
+ * are forced independently, after a crash an index entry may survive while its record doesn't. So
+ * the CRC of every indexed record is checked when the store is opened again, and the store is
+ * truncated after the last valid record, dropping the blocks whose record or index entry was not
+ * fully written.
+ *
+ * The records are read through read-only memory mappings of the segments, so a stored block can be
+ * served without copying it to the heap.
+ */
+public class BlockStore implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 128L << 20;
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 16;
+
+    private static final int HASH_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    /** hash, segment, offset and length of a record */
+    private static final int INDEX_ENTRY_SIZE = HASH_SIZE + Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    /** The location of the record of a block */
+    private static class Location {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int groupCommitSize;
+    private final HashMap<ByteArrayWrapper, Location> locations;
+    private final ArrayList<byte[]> mainChainHashes;
+    private final ArrayList<FileChannel> segments;
+    private final ArrayList<MappedByteBuffer> mappings;
+    private final HashSet<FileChannel> unsyncedSegments;
+    private final FileChannel indexChannel;
+    private final FileChannel heightsChannel;
+    private int pendingWrites;
+
+    /** Opens or creates the store in {@code directory} with the default segment and group commit sizes */
+    public BlockStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_GROUP_COMMIT_SIZE);
+    }
+
+    /**
+     * Opens or creates the store in {@code directory}, starting a new segment when a record doesn't
+     * fit in {@code segmentSize} bytes and forcing the writes to disk every {@code groupCommitSize}
+     * blocks.
+     */
+    public BlockStore(Path directory, long segmentSize, int groupCommitSize) throws IOException {
+        if (segmentSize <= RECORD_HEADER_SIZE || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segment size must fit in a memory mapping");
+        if (groupCommitSize < 1)
+            throw new IllegalArgumentException("Group commit size must be positive");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.groupCommitSize = groupCommitSize;
+        this.locations = new HashMap<>();
+        this.mainChainHashes = new ArrayList<>();
+        this.segments = new ArrayList<>();
+        this.mappings = new ArrayList<>();
+        this.unsyncedSegments = new HashSet<>();
+
+        Files.createDirectories(directory);
+        for (int segment = 0; Files.exists(getSegmentPath(segment)); segment++)
+            openSegment(segment);
+        if (segments.isEmpty())
+            openSegment(0);
+        indexChannel = open(directory.resolve("index.dat"));
+        heightsChannel = open(directory.resolve("heights.dat"));
+        recover();
+    }
+
+    /** Returns the number of stored blocks */
+    public synchronized int size() {
+        return locations.size();
+    }
+
+    /** Returns true if the block hashed {@code blockHash} is stored */
+    public synchronized boolean contains(byte[] blockHash) {
+        return locations.containsKey(new ByteArrayWrapper(blockHash));
+    }
+
+    /**
+     * Appends the finalized {@code block} unless it is already stored. The block is only durable
+     * after the next group commit or {@link #sync()}.
+     */
+    public synchronized void append(Block block) throws IOException {
+        byte[] hash = block.getHash();
+        if (! isStored(hash))
+            append(hash, ByteBuffer.wrap(BlockCodec.encode(block)));
+    }
+
+    /**
+     * Same as {@link #append(Block)} for the block viewed by {@code view}, whose encoding is written
+     * as is.
+     */
+    public synchronized void append(BlockView view) throws IOException {
+        byte[] hash = view.getHash();
+        if (! isStored(hash))
+            append(hash, view.getEncoded());
+    }
+
+    /** Returns the height of the highest main chain block, 0 if there is none */
+    public synchronized int getMainChainHeight() {
+        return mainChainHashes.size();
+    }
+
+    /** Returns the hash of the main chain block at {@code height}, or null if there is none */
+    public synchronized byte[] getMainChainHash(int height) {
+        if (height < 1 || height > mainChainHashes.size())
+            return null;
+        return mainChainHashes.get(height - 1).clone();
+    }
+
+    /**
+     * Records the stored block hashed {@code blockHash} as the main chain block at {@code height}.
+     * If another block was recorded at this height, the main chain blocks above it are dropped.
+     */
+    public synchronized void setMainChainHash(int height, byte[] blockHash) throws IOException {
+        if (height < 1 || height > mainChainHashes.size() + 1)
+            throw new IllegalArgumentException("Main chain height " + height + " is not contiguous");
+        if (! contains(blockHash))
+            throw new IllegalArgumentException("Block is not stored");
+        if (height <= mainChainHashes.size() && Arrays.equals(mainChainHashes.get(height - 1), blockHash))
+            return;
+        writeFully(heightsChannel, ByteBuffer.wrap(blockHash), (long) (height - 1) * HASH_SIZE);
+        if (height <= mainChainHashes.size()) {
+            mainChainHashes.subList(height - 1, mainChainHashes.size()).clear();
+            heightsChannel.truncate((long) height * HASH_SIZE);
+        }
+        mainChainHashes.add(blockHash.clone());
+    }
+
+    /**
+     * Returns the encoded block hashed {@code blockHash} as a read-only buffer over the memory
+     * mapped segment, or null if it isn't stored.
+     *
+     * @throws IOException if the record is corrupted
+     */
+    public synchronized ByteBuffer getEncodedBlock(byte[] blockHash) throws IOException {
+        Location location = locations.get(new ByteArrayWrapper(blockHash));
+        if (location == null)
+            return null;
+        MappedByteBuffer mapping = mappings.get(location.segment);
+        long end = location.offset + RECORD_HEADER_SIZE + location.length;
+        if (mapping == null || mapping.capacity() < end) {
+            FileChannel channel = segments.get(location.segment);
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mappings.set(location.segment, mapping);
+        }
+        ByteBuffer record = mapping.duplicate();
+        record.position((int) location.offset).limit((int) end);
+        record = record.slice();
+        int length = record.getInt();
+        int checksum = record.getInt();
+        ByteBuffer encoded = record.slice();
+        CRC32 crc = new CRC32();
+        crc.update(encoded.duplicate());
+        if (length != location.length || checksum != (int) crc.getValue())
+            throw new IOException("Corrupted record of block in segment " + location.segment);
+        return encoded.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the block hashed {@code blockHash}, or null if it isn't stored.
+     *
+     * @throws IOException if the record is corrupted
+     */
+    public Block getBlock(byte[] blockHash) throws IOException {
+        BlockView view = getBlockView(blockHash);
+        if (view == null)
+            return null;
+        try {
+            return view.toBlock();
+        } catch (IllegalArgumentException x) {
+            throw new IOException("Corrupted block", x);
+        }
+    }
+
+    /**
+     * Returns a view of the block hashed {@code blockHash} over its memory-mapped record, or null if
+     * it isn't stored. The block isn't decoded, only hashed in place to check the record.
+     *
+     * @throws IOException if the record is corrupted
+     */
+    public BlockView getBlockView(byte[] blockHash) throws IOException {
+        ByteBuffer encoded = getEncodedBlock(blockHash);
+        if (encoded == null)
+            return null;
+        BlockView view;
+        try {
+            view = BlockView.wrap(encoded);
+        } catch (IllegalArgumentException x) {
+            throw new IOException("Corrupted block", x);
+        }
+        if (! Arrays.equals(view.getHash(), blockHash))
+            throw new IOException("Corrupted block, its hash doesn't match");
+        return view;
+    }
+
+    /** Returns the main chain block at {@code height}, or null if there is none */
+    public Block getMainChainBlock(int height) throws IOException {
+        byte[] hash = getMainChainHash(height);
+        return (hash == null) ? null : getBlock(hash);
+    }
+
+    /** Returns a view of the main chain block at {@code height}, or null if there is none */
+    public BlockView getMainChainBlockView(int height) throws IOException {
+        byte[] hash = getMainChainHash(height);
+        return (hash == null) ? null : getBlockView(hash);
+    }
+
+    /** Forces all the pending writes to disk */
+    public synchronized void sync() throws IOException {
+        for (FileChannel channel : unsyncedSegments)
+            channel.force(false);
+        unsyncedSegments.clear();
+        indexChannel.force(false);
+        heightsChannel.force(false);
+        pendingWrites = 0;
+    }
+
+    /** Forces the pending writes to disk and closes the files */
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        for (FileChannel channel : segments)
+            channel.close();
+        indexChannel.close();
+        heightsChannel.close();
+        mappings.clear();
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /**
+     * Returns true if the block hashed {@code hash} is stored
+     *
+     * @throws IllegalArgumentException if the hash doesn't have the size of a block hash
+     */
+    private boolean isStored(byte[] hash) {
+        if (hash.length != HASH_SIZE)
+            throw new IllegalArgumentException("Block hash must be " + HASH_SIZE + " bytes");
+        return locations.containsKey(new ByteArrayWrapper(hash));
+    }
+
+    /** Appends the record of the block hashed {@code hash} encoded as the remaining bytes of {@code encoded} */
+    private void append(byte[] hash, ByteBuffer encoded) throws IOException {
+        int length = encoded.remaining();
+        int segment = segments.size() - 1;
+        FileChannel channel = segments.get(segment);
+        if (channel.size() > 0 && channel.size() + RECORD_HEADER_SIZE + length > segmentSize) {
+            openSegment(++segment);
+            channel = segments.get(segment);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(encoded.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt((int) crc.getValue());
+        record.put(encoded.duplicate());
+        record.flip();
+        long offset = channel.size();
+        writeFully(channel, record, offset);
+        unsyncedSegments.add(channel);
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.put(hash);
+        entry.putInt(segment);
+        entry.putLong(offset);
+        entry.putInt(length);
+        entry.flip();
+        writeFully(indexChannel, entry, (long) locations.size() * INDEX_ENTRY_SIZE);
+        locations.put(new ByteArrayWrapper(hash), new Location(segment, offset, length));
+
+        if (++pendingWrites >= groupCommitSize)
+            sync();
+    }
+
+    private Path getSegmentPath(int segment) {
+        return directory.resolve(String.format("blk%05d.dat", segment));
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void openSegment(int segment) throws IOException {
+        segments.add(open(getSegmentPath(segment)));
+        mappings.add(null);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    /**
+     * Loads the index entries whose record was fully written and matches its CRC, up to the first
+     * which doesn't, then drops the records and the main chain hashes written after the last valid
+     * entry.
+     */
+    private void recover() throws IOException {
+        long[] validSizes = new long[segments.size()];
+        MappedByteBuffer[] segmentMappings = new MappedByteBuffer[segments.size()];
+        long entries = indexChannel.size() / INDEX_ENTRY_SIZE;
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        long validEntries = 0;
+        for (; validEntries < entries; validEntries++) {
+            entry.clear();
+            readFully(indexChannel, entry, validEntries * INDEX_ENTRY_SIZE);
+            entry.flip();
+            byte[] hash = new byte[HASH_SIZE];
+            entry.get(hash);
+            int segment = entry.getInt();
+            long offset = entry.getLong();
+            int length = entry.getInt();
+            if (segment < 0 || segment >= segments.size() || offset < 0 || length < 0)
+                break;
+            long end = offset + RECORD_HEADER_SIZE + length;
+            if (end > segments.get(segment).size())
+                break;
+            if (segmentMappings[segment] == null) {
+                FileChannel channel = segments.get(segment);
+                segmentMappings[segment] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (! isValidRecord(segmentMappings[segment], offset, length))
+                break;
+            locations.put(new ByteArrayWrapper(hash), new Location(segment, offset, length));
+            validSizes[segment] = Math.max(validSizes[segment], end);
+        }
+        indexChannel.truncate(validEntries * INDEX_ENTRY_SIZE);
+        for (int segment = 0; segment < segments.size(); segment++)
+            segments.get(segment).truncate(validSizes[segment]);
+
+        long heights = heightsChannel.size() / HASH_SIZE;
+        ByteBuffer hash = ByteBuffer.allocate(HASH_SIZE);
+        for (long height = 0; height < heights; height++) {
+            hash.clear();
+            readFully(heightsChannel, hash, height * HASH_SIZE);
+            if (! locations.containsKey(new ByteArrayWrapper(hash.array())))
+                break;
+            mainChainHashes.add(hash.array().clone());
+        }
+        heightsChannel.truncate((long) mainChainHashes.size() * HASH_SIZE);
+        sync();
+    }
+
+    /** Returns true if the record at {@code offset} of {@code mapping} has the given length and matches its CRC */
+    private static boolean isValidRecord(MappedByteBuffer mapping, long offset, int length) {
+        ByteBuffer record = mapping.duplicate();
+        record.position((int) offset).limit((int) (offset + RECORD_HEADER_SIZE + length));
+        record = record.slice();
+        if (record.getInt() != length)
+            return false;
+        int checksum = record.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return checksum == (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of file");
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only flyweight view of a block encoded by {@link BlockCodec}, such as a record served by
+ * {@link BlockStore#getEncodedBlock(byte[])}. Its transactions are {@link TransactionView}s over
+ * the same buffer, so the block can be hashed and its transactions validated without decoding it.
+ */
+public final class BlockView {
+
+    /** The transaction which the coinbase output belongs to, since outputs are inner objects */
+    private static final Transaction OUTPUT_OWNER = new Transaction();
+
+    private final ByteBuffer prevBlockHash;
+    private final ByteBuffer buffer;
+    /** The offset of the coinbase value, its address length, its prefix length and its scheme */
+    private final int[] coinbase;
+    private final TransactionView[] txs;
+    private volatile byte[] merkleRoot;
+    private volatile byte[] hash;
+
+    private BlockView(ByteBuffer prevBlockHash, ByteBuffer buffer, int[] coinbase, TransactionView[] txs) {
+        this.prevBlockHash = prevBlockHash;
+        this.buffer = buffer;
+        this.coinbase = coinbase;
+        this.txs = txs;
+    }
+
+    /**
+     * Returns a view of the block encoded in the remaining bytes of {@code buffer}, which must not
+     * be modified while the view is in use.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static BlockView wrap(ByteBuffer buffer) {
+        ByteBuffer encoded = buffer.slice().asReadOnlyBuffer();
+        try {
+            int prevBlockHashLength = BlockCodec.getVarint(encoded) - 1;
+            ByteBuffer prevBlockHash = null;
+            if (prevBlockHashLength >= 0) {
+                prevBlockHash = encoded.slice();
+                BlockCodec.skip(encoded, prevBlockHashLength);
+                prevBlockHash.limit(prevBlockHashLength);
+            }
+            int[] coinbase = new int[4];
+            BlockCodec.readOutput(encoded, 0, coinbase, 0);
+            if (encoded.getDouble(coinbase[0]) != Block.COINBASE)
+                throw new IllegalArgumentException("Invalid coinbase value");
+            TransactionView[] txs = new TransactionView[BlockCodec.getCount(encoded)];
+            for (int i = 0; i < txs.length; i++)
+                txs[i] = TransactionView.read(encoded);
+            if (encoded.hasRemaining())
+                throw new IllegalArgumentException("Trailing bytes after the block");
+            return new BlockView(prevBlockHash, encoded.rewind(), coinbase, txs);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException x) {
+            throw new IllegalArgumentException("Truncated block", x);
+        }
+    }
+
+    /** Returns the hash of the previous block, or null for a genesis block */
+    public ByteBuffer getPrevBlockHash() {
+        return (prevBlockHash != null) ? prevBlockHash.duplicate() : null;
+    }
+
+    /** Returns the hash of the coinbase transaction */
+    public byte[] getCoinbaseHash() {
+        ByteBuffer output = buffer.duplicate();
+        output.position(coinbase[0]).limit(coinbase[0] + Double.BYTES + coinbase[1]);
+        MessageDigest md = BlockCodec.sha256();
+        md.update(output);
+        return md.digest();
+    }
+
+    /**
+     * Returns the coinbase output paying its interned address, or null if the address bytes aren't a
+     * valid key of its scheme
+     */
+    public Transaction.Output getCoinbaseOutput() {
+        try {
+            return OUTPUT_OWNER.new Output(Block.COINBASE, getCoinbaseAddress().getKey());
+        } catch (IllegalArgumentException x) {
+            return null;
+        }
+    }
+
+    public int numTransactions() {
+        return txs.length;
+    }
+
+    public TransactionView getTransaction(int index) {
+        return txs[index];
+    }
+
+    /** Returns the views of the transactions of the block, in block order */
+    public List<TransactionView> getTransactions() {
+        return Collections.unmodifiableList(Arrays.asList(txs));
+    }
+
+    /** Returns the encoded block */
+    public ByteBuffer getEncoded() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Returns the Merkle root of the coinbase and transaction hashes, computed on the first call.
+     * It's the same as the Merkle root of the finalized {@link Block}.
+     */
+    public byte[] getMerkleRoot() {
+        byte[] root = merkleRoot;
+        if (root == null) {
+            List<byte[]> leaves = new ArrayList<>(txs.length + 1);
+            leaves.add(getCoinbaseHash());
+            for (TransactionView tx : txs)
+                leaves.add(tx.getHash());
+            root = new MerkleTree(leaves).getRoot();
+            merkleRoot = root;
+        }
+        return root.clone();
+    }
+
+    /**
+     * Returns the hash of the block, computed on the first call from the hashes of its transactions.
+     * It's the same as the hash of the finalized {@link Block}.
+     */
+    public byte[] getHash() {
+        byte[] h = hash;
+        if (h == null) {
+            h = BlockHeader.computeHash(BlockCodec.toArray(prevBlockHash), getMerkleRoot());
+            hash = h;
+        }
+        return h.clone();
+    }
+
+    /**
+     * Builds and finalizes the {@link Block} of this view.
+     *
+     * @throws IllegalArgumentException if an address isn't a valid key of its scheme
+     */
+    public Block toBlock() {
+        Block block = new Block(BlockCodec.toArray(prevBlockHash), getCoinbaseAddress().getKey());
+        for (TransactionView tx : txs)
+            block.addTransaction(tx.toTransaction());
+        block.finalize();
+        return block;
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /**
+     * Returns the interned address of the coinbase
+     *
+     * @throws IllegalArgumentException if it isn't a valid key of its scheme
+     */
+    private Address getCoinbaseAddress() {
+        ByteBuffer rawAddress = buffer.duplicate();
+        rawAddress.position(coinbase[0] + Double.BYTES).limit(coinbase[0] + Double.BYTES + coinbase[1]);
+        return Address.intern(SignatureScheme.values()[coinbase[3]], rawAddress.slice(), coinbase[2]);
+    }
+}
@@ -1,37 +1,143 @@
 
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Crypto {
 
+    /** Maximum number of prepared public keys kept in memory */
+    private static final int PREPARED_KEYS_CAPACITY = 10_000;
+
+    /** Public keys translated once to the provider's key type, so they are not set up again */
+    private static final ConcurrentHashMap<PublicKey, PublicKey> preparedKeys = new ConcurrentHashMap<>();
+
+    /** One reusable {@code Signature} instance per thread and signature scheme */
+    private static final ThreadLocal<Verifier[]> verifiers =
+            ThreadLocal.withInitial(() -> new Verifier[SignatureScheme.values().length]);
+
     /**
      * @return true if {@code signature} is a valid digital signature of {@code message} under the
-     *         key {@code pubKey}. Internally, this uses RSA signature, but you do not
-     *         have to deal with any of the implementation details of the specific signature
-     *         algorithm
+     *         key {@code pubKey}. Internally, this uses the {@link SignatureScheme} of the key (RSA
+     *         or Ed25519), but you do not have to deal with any of the implementation details of
+     *         the specific signature algorithm
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
+        if (message == null)
+            return false;
+        return verifySignature(pubKey, new byte[][] {message}, signature);
+    }
+
+    /**
+     * Same as {@link #verifySignature(PublicKey, byte[], byte[])} where the message is the
+     * concatenation of {@code messageParts}. The parts are fed to the signature one after the other,
+     * so a large part shared by many messages is never copied.
+     */
+    public static boolean verifySignature(PublicKey pubKey, byte[][] messageParts, byte[] signature) {
+        if (pubKey == null || messageParts == null || signature == null)
+            return false;
+        Verifier verifier = getVerifier(pubKey);
+        return verifier != null && verifier.verify(prepareKey(pubKey), messageParts, signature);
+    }
+
+    /**
+     * Same as {@link #verifySignature(PublicKey, byte[][], byte[])} where the message parts are the
+     * remaining bytes of buffers, such as slices of an encoded {@link TransactionView}.
+     */
+    public static boolean verifySignature(PublicKey pubKey, ByteBuffer[] messageParts, byte[] signature) {
+        if (pubKey == null || messageParts == null || signature == null)
+            return false;
+        Verifier verifier = getVerifier(pubKey);
+        return verifier != null && verifier.verify(prepareKey(pubKey), messageParts, signature);
+    }
+
+    /** Returns the verifier of this thread for the scheme of {@code pubKey}, or null if it isn't supported */
+    private static Verifier getVerifier(PublicKey pubKey) {
+        SignatureScheme scheme;
         try {
-            sig = Signature.getInstance("SHA256withRSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            scheme = SignatureScheme.forKey(pubKey);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
+        Verifier[] threadVerifiers = verifiers.get();
+        Verifier verifier = threadVerifiers[scheme.ordinal()];
+        if (verifier == null)
+            verifier = threadVerifiers[scheme.ordinal()] = new Verifier(scheme);
+        return verifier;
+    }
+
+    /**
+     * Returns the canonical provider key of {@code pubKey}. The prepared keys are dropped all at once
+     * when the cache gets full.
+     */
+    private static PublicKey prepareKey(PublicKey pubKey) {
+        PublicKey prepared = preparedKeys.get(pubKey);
+        if (prepared != null)
+            return prepared;
         try {
-            sig.initVerify(pubKey);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+            prepared = (PublicKey) KeyFactory.getInstance(pubKey.getAlgorithm()).translateKey(pubKey);
+        } catch (GeneralSecurityException e) {
+            prepared = pubKey;
         }
-        try {
-            sig.update(message);
-            return sig.verify(signature);
-        } catch (SignatureException e) {
-            e.printStackTrace();
+        if (preparedKeys.size() >= PREPARED_KEYS_CAPACITY)
+            preparedKeys.clear();
+        PublicKey existing = preparedKeys.putIfAbsent(pubKey, prepared);
+        return existing != null ? existing : prepared;
+    }
+
+    /**
+     * A {@code Signature} instance of one scheme bound to a single thread which is re-initialized
+     * only when the verifying key changes.
+     */
+    private static class Verifier {
+
+        private final Signature sig;
+        private PublicKey currentKey;
+
+        Verifier(SignatureScheme scheme) {
+            try {
+                sig = Signature.getInstance(scheme.getAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(scheme.getAlgorithm() + " is not available", e);
+            }
+        }
+
+        boolean verify(PublicKey pubKey, byte[][] messageParts, byte[] signature) {
+            try {
+                init(pubKey);
+                for (byte[] part : messageParts)
+                    sig.update(part);
+                return sig.verify(signature);
+            } catch (InvalidKeyException | SignatureException e) {
+                // The instance state is unknown after a failure so it is initialized again next time
+                currentKey = null;
+                return false;
+            }
         }
-        return false;
 
+        boolean verify(PublicKey pubKey, ByteBuffer[] messageParts, byte[] signature) {
+            try {
+                init(pubKey);
+                for (ByteBuffer part : messageParts)
+                    sig.update(part.duplicate());
+                return sig.verify(signature);
+            } catch (InvalidKeyException | SignatureException e) {
+                currentKey = null;
+                return false;
+            }
+        }
+
+        private void init(PublicKey pubKey) throws InvalidKeyException {
+            if (pubKey != currentKey) {
+                currentKey = null;
+                sig.initVerify(pubKey);
+                currentKey = pubKey;
+            }
+        }
     }
 }
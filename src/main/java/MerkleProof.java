@@ -0,0 +1,56 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact proof that a transaction is included in a block, made of the block header fields and
+ * the Merkle branch of the transaction hash. It can be checked against a block hash alone, without
+ * any transaction data, in O(log n).
+ */
+public class MerkleProof {
+
+    private final byte[] txHash;
+    private final byte[] prevBlockHash;
+    private final byte[][] siblings;
+    private final boolean[] siblingOnLeft;
+
+    public MerkleProof(byte[] txHash, byte[] prevBlockHash, List<byte[]> siblings, List<Boolean> siblingOnLeft) {
+        if (siblings.size() != siblingOnLeft.size())
+            throw new IllegalArgumentException("Every sibling needs a side");
+        this.txHash = txHash.clone();
+        this.prevBlockHash = (prevBlockHash == null) ? null : prevBlockHash.clone();
+        this.siblings = new byte[siblings.size()][];
+        this.siblingOnLeft = new boolean[siblings.size()];
+        for (int i = 0; i < siblings.size(); i++) {
+            this.siblings[i] = siblings.get(i).clone();
+            this.siblingOnLeft[i] = siblingOnLeft.get(i);
+        }
+    }
+
+    public byte[] getTxHash() {
+        return txHash.clone();
+    }
+
+    public byte[] getPrevBlockHash() {
+        return (prevBlockHash == null) ? null : prevBlockHash.clone();
+    }
+
+    /** Returns the number of hashes in the Merkle branch */
+    public int getBranchLength() {
+        return siblings.length;
+    }
+
+    /** Returns the Merkle root obtained by hashing the leaf node of the transaction hash up the branch */
+    public byte[] computeMerkleRoot() {
+        byte[] node = MerkleTree.hashLeaf(txHash);
+        for (int i = 0; i < siblings.length; i++)
+            node = siblingOnLeft[i] ? MerkleTree.hashPair(siblings[i], node) : MerkleTree.hashPair(node, siblings[i]);
+        return node;
+    }
+
+    /** @return true if this proof shows that the transaction is included in the block hashed {@code blockHash} */
+    public boolean verify(byte[] blockHash) {
+        if (blockHash == null)
+            return false;
+        return Arrays.equals(blockHash, BlockHeader.computeHash(prevBlockHash, computeMerkleRoot()));
+    }
+}
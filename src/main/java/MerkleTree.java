@@ -0,0 +1,173 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A binary Merkle tree over transaction hashes.
+ *
+ * Every leaf node is SHA-256(0x00 || txHash) and every inner node SHA-256(0x01 || left || right),
+ * so an inner node can't be passed off as a transaction hash in a proof. When a level has an odd
+ * number of nodes, the last node is promoted unchanged to the next level (it is not paired with
+ * itself), so duplicating the last transaction of a block never yields the same root.
+ *
+ * All the levels are kept in memory, so appending or replacing a leaf only recomputes its path to
+ * the root in O(log n).
+ */
+public class MerkleTree {
+
+    /** Levels with more nodes than this are computed in parallel when building a whole tree */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException("SHA-256 is not available", x);
+        }
+    });
+
+    private static final byte LEAF_PREFIX = 0x00, INNER_PREFIX = 0x01;
+
+    /** The transaction hashes */
+    private final ArrayList<byte[]> leaves;
+    /** levels.get(0) holds the leaf nodes and the last level holds the root */
+    private final ArrayList<ArrayList<byte[]>> levels;
+
+    /** Creates an empty tree */
+    public MerkleTree() {
+        this.leaves = new ArrayList<>();
+        levels = new ArrayList<>();
+        levels.add(new ArrayList<>());
+    }
+
+    /** Creates a tree over {@code leaves}, hashing large levels in parallel */
+    public MerkleTree(List<byte[]> leaves) {
+        this.leaves = new ArrayList<>(leaves.size());
+        for (byte[] leaf : leaves)
+            this.leaves.add(leaf.clone());
+        levels = new ArrayList<>();
+        byte[][] leafNodes = new byte[leaves.size()][];
+        IntStream leafIndices = IntStream.range(0, leafNodes.length);
+        if (leafNodes.length > PARALLEL_THRESHOLD)
+            leafIndices = leafIndices.parallel();
+        leafIndices.forEach(i -> leafNodes[i] = hashLeaf(this.leaves.get(i)));
+        ArrayList<byte[]> level = new ArrayList<>(List.of(leafNodes));
+        levels.add(level);
+        while (level.size() > 1) {
+            ArrayList<byte[]> children = level;
+            int parentsCount = (children.size() + 1) / 2;
+            byte[][] parents = new byte[parentsCount][];
+            IntStream indices = IntStream.range(0, parentsCount);
+            if (parentsCount > PARALLEL_THRESHOLD)
+                indices = indices.parallel();
+            indices.forEach(i -> parents[i] = computeParent(children, i));
+            level = new ArrayList<>(List.of(parents));
+            levels.add(level);
+        }
+    }
+
+    /** Returns the number of leaves */
+    public int size() {
+        return leaves.size();
+    }
+
+    /** Returns the leaf at {@code index} */
+    public byte[] getLeaf(int index) {
+        return leaves.get(index).clone();
+    }
+
+    /** Returns the Merkle root, or null if the tree is empty */
+    public byte[] getRoot() {
+        ArrayList<byte[]> top = levels.get(levels.size() - 1);
+        return top.isEmpty() ? null : top.get(0).clone();
+    }
+
+    /** Appends {@code leaf} and updates its path to the root */
+    public void addLeaf(byte[] leaf) {
+        leaves.add(leaf.clone());
+        levels.get(0).add(hashLeaf(leaf));
+        updatePath(size() - 1);
+    }
+
+    /** Replaces the leaf at {@code index} and updates its path to the root */
+    public void setLeaf(int index, byte[] leaf) {
+        leaves.set(index, leaf.clone());
+        levels.get(0).set(index, hashLeaf(leaf));
+        updatePath(index);
+    }
+
+    /**
+     * Returns the Merkle branch of the leaf at {@code index}: the sibling of its leaf node and of
+     * each node on its path to the root, from the bottom up. Levels where the node is promoted
+     * without a sibling are skipped. {@code siblingOnLeft} receives, for each returned sibling,
+     * whether it is the left child.
+     */
+    public List<byte[]> getBranch(int index, List<Boolean> siblingOnLeft) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("No leaf at index " + index);
+        List<byte[]> branch = new ArrayList<>();
+        for (int level = 0 ; levels.get(level).size() > 1 ; level++) {
+            int sibling = index ^ 1;
+            if (sibling < levels.get(level).size()) {
+                branch.add(levels.get(level).get(sibling).clone());
+                siblingOnLeft.add(sibling < index);
+            }
+            index /= 2;
+        }
+        return branch;
+    }
+
+    /** Returns the leaf node of the transaction hash {@code leaf}: SHA-256(0x00 || leaf) */
+    public static byte[] hashLeaf(byte[] leaf) {
+        MessageDigest md = digests.get();
+        md.update(LEAF_PREFIX);
+        md.update(leaf);
+        return md.digest();
+    }
+
+    /** Returns the inner node SHA-256(0x01 || left || right) */
+    public static byte[] hashPair(byte[] left, byte[] right) {
+        MessageDigest md = digests.get();
+        md.update(INNER_PREFIX);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /**
+     * Returns the node at {@code index} of the level above {@code children}.
+     */
+    private static byte[] computeParent(List<byte[]> children, int index) {
+        int left = 2 * index;
+        if (left + 1 < children.size())
+            return hashPair(children.get(left), children.get(left + 1));
+        return children.get(left);
+    }
+
+    /**
+     * Recomputes the ancestors of the leaf at {@code index}, adding a new level on top when the root
+     * level gets a second node.
+     */
+    private void updatePath(int index) {
+        int level = 0;
+        while (levels.get(level).size() > 1) {
+            if (level + 1 == levels.size())
+                levels.add(new ArrayList<>());
+            ArrayList<byte[]> parents = levels.get(level + 1);
+            int parentIndex = index / 2;
+            byte[] parent = computeParent(levels.get(level), parentIndex);
+            if (parentIndex < parents.size())
+                parents.set(parentIndex, parent);
+            else
+                parents.add(parent);
+            index = parentIndex;
+            level++;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A UTXO set stored outside the heap, in a direct buffer, as an open-addressing hash table with
+ * linear probing. Each slot takes 48 bytes:
+ *
+ * <pre>
+ * slot = txHash(32) index(4) addressId(4) amount(8)
+ * </pre>
+ *
+ * The amount is a fixed-point number of {@link Transaction#BASE_UNITS_PER_COIN} base units, and
+ * the address id refers to an interned {@link Address} of the address table, which is the only
+ * part kept in the heap. So the table costs about 70 bytes per UTXO at the maximum load factor and
+ * millions of UTXOs add no objects for the garbage collector to trace, against well over 200 heap
+ * bytes per UTXO in a hash map of {@link UTXO} and {@link Transaction.Output} objects.
+ *
+ * Transaction hashes must be 32 bytes long and values a whole number of base units, see
+ * {@link #isWholeBaseUnits(double)}. Looking up a hash of another length finds nothing. The outputs
+ * returned by lookups are created on each call, so they are equal but not identical to the stored
+ * ones.
+ *
+ * Each address id counts the slots referring to it, and is reused once none does, so the address
+ * table only holds the addresses of the stored UTXOs. A copy duplicates it along with the slots.
+ */
+public class OffHeapUtxoStore {
+
+    private static final int HASH_SIZE = 32;
+    private static final int SLOT_SIZE = HASH_SIZE + Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int INDEX_OFFSET = HASH_SIZE;
+    private static final int ADDRESS_OFFSET = INDEX_OFFSET + Integer.BYTES;
+    private static final int AMOUNT_OFFSET = ADDRESS_OFFSET + Integer.BYTES;
+    /** Address ids of the free and deleted slots, so a zeroed buffer is an empty table */
+    private static final int FREE = 0, DELETED = -1;
+    private static final int MIN_CAPACITY = 16;
+    /** The table grows once more than 70% of its slots are used or deleted */
+    private static final int MAX_LOAD_PERCENT = 70;
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+
+    /** The transaction which the returned outputs belong to, since outputs are inner objects */
+    private static final Transaction OUTPUT_OWNER = new Transaction();
+
+    private ByteBuffer slots;
+    private int capacity;
+    private int size;
+    private int deleted;
+    /** The interned addresses by id - 1 (null for a free id), and the id of each address */
+    private final ArrayList<Address> addresses;
+    private final HashMap<Address, Integer> addressIds;
+    /** The number of slots referring to each address id - 1, and the free ids */
+    private int[] addressRefCounts;
+    private final ArrayDeque<Integer> freeAddressIds;
+
+    /** Creates an empty store sized for {@code expectedSize} UTXOs */
+    public OffHeapUtxoStore(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("Expected size must be non-negative");
+        capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && (long) capacity * MAX_LOAD_PERCENT < (long) expectedSize * 100)
+            capacity <<= 1;
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        addresses = new ArrayList<>();
+        addressIds = new HashMap<>();
+        addressRefCounts = new int[MIN_CAPACITY];
+        freeAddressIds = new ArrayDeque<>();
+    }
+
+    /** Creates a copy of {@code store}, copying its table at once */
+    public OffHeapUtxoStore(OffHeapUtxoStore store) {
+        capacity = store.capacity;
+        size = store.size;
+        deleted = store.deleted;
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        slots.put(store.slots.duplicate().clear());
+        addresses = new ArrayList<>(store.addresses);
+        addressIds = new HashMap<>(store.addressIds);
+        addressRefCounts = store.addressRefCounts.clone();
+        freeAddressIds = new ArrayDeque<>(store.freeAddressIds);
+    }
+
+    /** Returns true if {@code value} is a whole number of base units, which the store can hold exactly */
+    public static boolean isWholeBaseUnits(double value) {
+        long amount = Math.round(value * Transaction.BASE_UNITS_PER_COIN);
+        return (double) amount / Transaction.BASE_UNITS_PER_COIN == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Maps {@code utxo} to {@code txOut}, replacing its previous output if any.
+     *
+     * @throws IllegalArgumentException if the transaction hash isn't 32 bytes long or the value
+     *         isn't a whole number of base units
+     */
+    public void put(UTXO utxo, Transaction.Output txOut) {
+        if (utxo.getTxHash().length != HASH_SIZE)
+            throw new IllegalArgumentException("Transaction hash must be " + HASH_SIZE + " bytes");
+        long amount = toBaseUnits(txOut.value);
+        int slot = find(utxo);
+        if (slot < 0 && (long) (size + deleted + 1) * 100 > (long) capacity * MAX_LOAD_PERCENT) {
+            resize();
+            slot = find(utxo);
+        }
+        int addressId = getAddressId(txOut.getAddress());
+        if (slot < 0) {
+            slot = -slot - 1;
+            if (slots.getInt(slot * SLOT_SIZE + ADDRESS_OFFSET) == DELETED)
+                deleted--;
+            size++;
+            int offset = slot * SLOT_SIZE;
+            slots.put(offset, utxo.getTxHash());
+            slots.putInt(offset + INDEX_OFFSET, utxo.getIndex());
+            addressRefCounts[addressId - 1]++;
+        }
+        else {
+            int oldAddressId = slots.getInt(slot * SLOT_SIZE + ADDRESS_OFFSET);
+            addressRefCounts[addressId - 1]++;
+            releaseAddressId(oldAddressId);
+        }
+        slots.putInt(slot * SLOT_SIZE + ADDRESS_OFFSET, addressId);
+        slots.putLong(slot * SLOT_SIZE + AMOUNT_OFFSET, amount);
+    }
+
+    /** Removes {@code utxo} from the store */
+    public void remove(UTXO utxo) {
+        int slot = find(utxo);
+        if (slot < 0)
+            return;
+        releaseAddressId(slots.getInt(slot * SLOT_SIZE + ADDRESS_OFFSET));
+        slots.putInt(slot * SLOT_SIZE + ADDRESS_OFFSET, DELETED);
+        size--;
+        deleted++;
+    }
+
+    /** Returns the output of {@code utxo}, or null if it isn't in the store */
+    public Transaction.Output get(UTXO utxo) {
+        int slot = find(utxo);
+        return (slot < 0) ? null : getOutput(slot * SLOT_SIZE);
+    }
+
+    /** Returns the value of {@code utxo} in base units, or {@code Long.MIN_VALUE} if it isn't in the store */
+    public long getAmount(UTXO utxo) {
+        int slot = find(utxo);
+        return (slot < 0) ? Long.MIN_VALUE : slots.getLong(slot * SLOT_SIZE + AMOUNT_OFFSET);
+    }
+
+    public boolean contains(UTXO utxo) {
+        return find(utxo) >= 0;
+    }
+
+    /** Calls {@code action} on every UTXO of the store with its output */
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        byte[] txHash = new byte[HASH_SIZE];
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = slot * SLOT_SIZE;
+            if (slots.getInt(offset + ADDRESS_OFFSET) <= FREE)
+                continue;
+            slots.get(offset, txHash);
+            action.accept(new UTXO(txHash, slots.getInt(offset + INDEX_OFFSET)), getOutput(offset));
+        }
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /**
+     * Returns the slot of {@code utxo}, or -(slot + 1) where slot is the first free or deleted slot
+     * of its probe sequence if it isn't in the table. A hash of another length than 32 bytes is
+     * never in the table, {@link #put} rejects it before looking it up.
+     */
+    private int find(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length != HASH_SIZE)
+            return -1;
+        ByteBuffer key = ByteBuffer.wrap(txHash);
+        long key0 = key.getLong(0), key1 = key.getLong(8), key2 = key.getLong(16), key3 = key.getLong(24);
+        int index = utxo.getIndex();
+        int mask = capacity - 1;
+        int firstDeleted = -1;
+        for (int slot = spread(key0, index) & mask; ; slot = (slot + 1) & mask) {
+            int offset = slot * SLOT_SIZE;
+            int addressId = slots.getInt(offset + ADDRESS_OFFSET);
+            if (addressId == FREE)
+                return -((firstDeleted >= 0) ? firstDeleted : slot) - 1;
+            if (addressId == DELETED) {
+                if (firstDeleted < 0)
+                    firstDeleted = slot;
+            }
+            else if (slots.getLong(offset) == key0 && slots.getLong(offset + 8) == key1
+                     && slots.getLong(offset + 16) == key2 && slots.getLong(offset + 24) == key3
+                     && slots.getInt(offset + INDEX_OFFSET) == index)
+                return slot;
+        }
+    }
+
+    /** Mixes the first bytes of the transaction hash, which are uniformly distributed, with the index */
+    private static int spread(long key0, int index) {
+        long h = (key0 ^ index) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Moves the entries to a table twice as large, or as large if it's mostly deleted slots */
+    private void resize() {
+        int newCapacity = ((long) size * 2 * 100 > (long) capacity * MAX_LOAD_PERCENT) ? capacity << 1 : capacity;
+        if (newCapacity > MAX_CAPACITY)
+            throw new IllegalStateException("The UTXO store is full");
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        slots = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+        deleted = 0;
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            int oldOffset = oldSlot * SLOT_SIZE;
+            if (oldSlots.getInt(oldOffset + ADDRESS_OFFSET) <= FREE)
+                continue;
+            int slot = spread(oldSlots.getLong(oldOffset), oldSlots.getInt(oldOffset + INDEX_OFFSET)) & mask;
+            while (slots.getInt(slot * SLOT_SIZE + ADDRESS_OFFSET) != FREE)
+                slot = (slot + 1) & mask;
+            slots.put(slot * SLOT_SIZE, oldSlots, oldOffset, SLOT_SIZE);
+        }
+    }
+
+    private Transaction.Output getOutput(int offset) {
+        Address address = addresses.get(slots.getInt(offset + ADDRESS_OFFSET) - 1);
+        double value = (double) slots.getLong(offset + AMOUNT_OFFSET) / Transaction.BASE_UNITS_PER_COIN;
+        return OUTPUT_OWNER.new Output(value, address.getKey());
+    }
+
+    /** Returns the id of {@code address}, giving it a free id if it has none */
+    private int getAddressId(Address address) {
+        Integer id = addressIds.get(address);
+        if (id == null) {
+            id = freeAddressIds.poll();
+            if (id != null)
+                addresses.set(id - 1, address);
+            else {
+                addresses.add(address);
+                id = addresses.size();
+                if (id > addressRefCounts.length)
+                    addressRefCounts = Arrays.copyOf(addressRefCounts, addressRefCounts.length * 2);
+            }
+            addressIds.put(address, id);
+        }
+        return id;
+    }
+
+    /** Drops a slot referring to {@code id}, which is freed once no slot does */
+    private void releaseAddressId(int id) {
+        if (--addressRefCounts[id - 1] > 0)
+            return;
+        addressIds.remove(addresses.set(id - 1, null));
+        freeAddressIds.push(id);
+    }
+
+    private static long toBaseUnits(double value) {
+        if (! isWholeBaseUnits(value))
+            throw new IllegalArgumentException("Value " + value + " isn't a whole number of base units");
+        return Math.round(value * Transaction.BASE_UNITS_PER_COIN);
+    }
+}
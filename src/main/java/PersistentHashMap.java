@@ -0,0 +1,309 @@
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map implemented as a hash array mapped trie (HAMT).
+ *
+ * Every update returns a new map which shares all the unchanged nodes with the old one, so a copy
+ * costs O(1) and each update costs O(log32 n) time and memory (only the path to the updated entry is
+ * copied). Keys must implement {@code hashCode} and {@code equals}.
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    /** Deepest shift which still reads hash bits, deeper nodes are collision nodes */
+    private static final int MAX_SHIFT = 30;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /** Returns the empty map */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value mapped to {@code key}, or null if there is none */
+    public V get(K key) {
+        if (root == null)
+            return null;
+        return root.get(0, spread(key.hashCode()), key);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /** Returns a map where {@code key} is mapped to {@code value} (which must not be null) */
+    public PersistentHashMap<K, V> put(K key, V value) {
+        int hash = spread(key.hashCode());
+        boolean[] added = new boolean[1];
+        Node<K, V> node = (root != null) ? root : new BitmapNode<>(0, new Object[0]);
+        Node<K, V> newRoot = node.put(0, new Leaf<>(hash, key, value), added);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /** Returns a map without {@code key} */
+    public PersistentHashMap<K, V> remove(K key) {
+        if (root == null)
+            return this;
+        Node<K, V> newRoot = root.remove(0, spread(key.hashCode()), key);
+        if (newRoot == root)
+            return this;
+        return (newRoot == null) ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    /** Calls {@code action} on every entry of the map */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null)
+            root.forEach(action);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    ///
+    /// Trie nodes
+    ///
+
+    private interface Node<K, V> {
+        V get(int shift, int hash, K key);
+
+        /** Returns the updated node, or this node if nothing changed */
+        Node<K, V> put(int shift, Leaf<K, V> leaf, boolean[] added);
+
+        /** Returns the updated node, this node if the key is absent or null if the node becomes empty */
+        Node<K, V> remove(int shift, int hash, K key);
+
+        /** Returns the only entry of this node if it holds exactly one entry and no sub-node */
+        Leaf<K, V> getSingleLeaf();
+
+        void forEach(BiConsumer<? super K, ? super V> action);
+    }
+
+    private static final class Leaf<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+
+        Leaf(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A node with up to 32 slots, one per 5-bit fragment of the hash. Only the occupied slots are
+     * stored, each holding either a {@link Leaf} or a sub-node.
+     */
+    private static final class BitmapNode<K, V> implements Node<K, V> {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(int shift, int hash, K key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return null;
+            Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                return (leaf.hash == hash && leaf.key.equals(key)) ? leaf.value : null;
+            }
+            return ((Node<K, V>) slot).get(shift + BITS, hash, key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> put(int shift, Leaf<K, V> leaf, boolean[] added) {
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                added[0] = true;
+                return new BitmapNode<>(bitmap | bit, newSlots);
+            }
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                Leaf<K, V> existing = (Leaf<K, V>) slot;
+                if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+                    if (existing.value == leaf.value)
+                        return this;
+                    newSlot = leaf;
+                }
+                else {
+                    newSlot = createNode(shift + BITS, existing, leaf);
+                    added[0] = true;
+                }
+            }
+            else {
+                Node<K, V> subNode = (Node<K, V>) slot;
+                newSlot = subNode.put(shift + BITS, leaf, added);
+                if (newSlot == subNode)
+                    return this;
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+            return new BitmapNode<>(bitmap, newSlots);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> remove(int shift, int hash, K key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                if (leaf.hash != hash || ! leaf.key.equals(key))
+                    return this;
+                newSlot = null;
+            }
+            else {
+                Node<K, V> subNode = (Node<K, V>) slot;
+                Node<K, V> newSubNode = subNode.remove(shift + BITS, hash, key);
+                if (newSubNode == subNode)
+                    return this;
+                // Sub-nodes left with a single entry are collapsed into a leaf
+                Leaf<K, V> single = (newSubNode == null) ? null : newSubNode.getSingleLeaf();
+                newSlot = (single != null) ? single : newSubNode;
+            }
+            if (newSlot != null) {
+                Object[] newSlots = slots.clone();
+                newSlots[index] = newSlot;
+                return new BitmapNode<>(bitmap, newSlots);
+            }
+            if (slots.length == 1)
+                return null;
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new BitmapNode<>(bitmap & ~bit, newSlots);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Leaf<K, V> getSingleLeaf() {
+            return (slots.length == 1 && slots[0] instanceof Leaf) ? (Leaf<K, V>) slots[0] : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Object slot : slots) {
+                if (slot instanceof Leaf) {
+                    Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                    action.accept(leaf.key, leaf.value);
+                }
+                else
+                    ((Node<K, V>) slot).forEach(action);
+            }
+        }
+
+        /** Creates the node at {@code shift} holding two leaves with different keys */
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private static <K, V> Node<K, V> createNode(int shift, Leaf<K, V> leaf1, Leaf<K, V> leaf2) {
+            if (shift > MAX_SHIFT)
+                return new CollisionNode<>(new Leaf[] {leaf1, leaf2});
+            int fragment1 = (leaf1.hash >>> shift) & MASK;
+            int fragment2 = (leaf2.hash >>> shift) & MASK;
+            if (fragment1 == fragment2)
+                return new BitmapNode<>(1 << fragment1, new Object[] {createNode(shift + BITS, leaf1, leaf2)});
+            Object[] slots = (fragment1 < fragment2) ? new Object[] {leaf1, leaf2} : new Object[] {leaf2, leaf1};
+            return new BitmapNode<>((1 << fragment1) | (1 << fragment2), slots);
+        }
+    }
+
+    /** A node holding the entries whose full hashes are equal */
+    private static final class CollisionNode<K, V> implements Node<K, V> {
+        final Leaf<K, V>[] leaves;
+
+        CollisionNode(Leaf<K, V>[] leaves) {
+            this.leaves = leaves;
+        }
+
+        private int indexOf(K key) {
+            for (int i = 0; i < leaves.length; i++)
+                if (leaves[i].key.equals(key))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        public V get(int shift, int hash, K key) {
+            int index = indexOf(key);
+            return (index < 0) ? null : leaves[index].value;
+        }
+
+        @Override
+        public Node<K, V> put(int shift, Leaf<K, V> leaf, boolean[] added) {
+            int index = indexOf(leaf.key);
+            Leaf<K, V>[] newLeaves;
+            if (index >= 0) {
+                if (leaves[index].value == leaf.value)
+                    return this;
+                newLeaves = leaves.clone();
+                newLeaves[index] = leaf;
+            }
+            else {
+                newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+                newLeaves[leaves.length] = leaf;
+                added[0] = true;
+            }
+            return new CollisionNode<>(newLeaves);
+        }
+
+        @Override
+        public Node<K, V> remove(int shift, int hash, K key) {
+            int index = indexOf(key);
+            if (index < 0)
+                return this;
+            if (leaves.length == 1)
+                return null;
+            Leaf<K, V>[] newLeaves = Arrays.copyOf(leaves, leaves.length - 1);
+            System.arraycopy(leaves, index + 1, newLeaves, index, leaves.length - index - 1);
+            return new CollisionNode<>(newLeaves);
+        }
+
+        @Override
+        public Leaf<K, V> getSingleLeaf() {
+            return (leaves.length == 1) ? leaves[0] : null;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Leaf<K, V> leaf : leaves)
+                action.accept(leaf.key, leaf.value);
+        }
+    }
+}
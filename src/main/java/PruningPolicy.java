@@ -0,0 +1,70 @@
+/**
+ * The limits on the chain state retained in memory by a {@link BlockChain}.
+ *
+ * The UTXO set of the maximum height block and the undo records of the main chain blocks above the
+ * cut-off depth are always retained since new blocks are validated against them. The bodies of the
+ * blocks and the side branches are retained within these limits only.
+ */
+public class PruningPolicy {
+
+    /** No heap budget, the bodies are only dropped by depth */
+    public static final long UNLIMITED_HEAP_BUDGET = Long.MAX_VALUE;
+
+    private static final PruningPolicy DEFAULT =
+        new PruningPolicy(BlockChain.CUT_OFF_AGE, BlockChain.CUT_OFF_AGE, UNLIMITED_HEAP_BUDGET, 1024);
+
+    private final int cutOffAge;
+    private final int bodyRetentionDepth;
+    private final long heapBudget;
+    private final int maxSideBranchBlocks;
+
+    /**
+     * @param cutOffAge           new blocks must be built on a block at most this deep below the
+     *                            maximum height, without a fork point deeper than that
+     * @param bodyRetentionDepth  the bodies of the blocks deeper than this below the maximum height
+     *                            are dropped, only their headers are kept
+     * @param heapBudget          estimated bytes of block bodies and undo records above which the
+     *                            oldest bodies, then the side branches with the least work, are dropped
+     * @param maxSideBranchBlocks maximum number of retained blocks outside of the main chain
+     */
+    public PruningPolicy(int cutOffAge, int bodyRetentionDepth, long heapBudget, int maxSideBranchBlocks) {
+        if (cutOffAge < 0)
+            throw new IllegalArgumentException("Cut off age must be non-negative");
+        if (bodyRetentionDepth < 0)
+            throw new IllegalArgumentException("Body retention depth must be non-negative");
+        if (heapBudget < 0)
+            throw new IllegalArgumentException("Heap budget must be non-negative");
+        if (maxSideBranchBlocks < 0)
+            throw new IllegalArgumentException("Maximum side branch blocks must be non-negative");
+        this.cutOffAge = cutOffAge;
+        this.bodyRetentionDepth = bodyRetentionDepth;
+        this.heapBudget = heapBudget;
+        this.maxSideBranchBlocks = maxSideBranchBlocks;
+    }
+
+    /** Returns the policy with a cut-off and a body retention depth of {@link BlockChain#CUT_OFF_AGE} */
+    public static PruningPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /** Returns a copy of this policy with the given body retention depth */
+    public PruningPolicy withBodyRetentionDepth(int bodyRetentionDepth) {
+        return new PruningPolicy(cutOffAge, bodyRetentionDepth, heapBudget, maxSideBranchBlocks);
+    }
+
+    public int getCutOffAge() {
+        return cutOffAge;
+    }
+
+    public int getBodyRetentionDepth() {
+        return bodyRetentionDepth;
+    }
+
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public int getMaxSideBranchBlocks() {
+        return maxSideBranchBlocks;
+    }
+}
@@ -0,0 +1,142 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of successfully verified input signatures.
+ *
+ * Each entry is keyed by (tx hash, input index, claimed output, signature digest), so a transaction
+ * which was already verified (e.g. when it was added to a block template) costs only its UTXO
+ * checks when it shows up again inside a block or on a sibling fork. When the cache is full, the
+ * least recently used entry is evicted.
+ */
+public class SignatureCache {
+
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    private final int capacity;
+    private final LinkedHashMap<ByteArrayWrapper, Boolean> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Creates a cache holding at most {@code capacity} verified signatures */
+    public SignatureCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must be non-negative");
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Boolean> eldest) {
+                return size() > SignatureCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return true if the signature of the input at {@code inputIndex} of {@code tx} is known to be
+     *         valid, and updates the hit/miss counters.
+     */
+    public boolean contains(Transaction tx, int inputIndex) {
+        return contains(getKey(tx, inputIndex));
+    }
+
+    /** Same as {@link #contains(Transaction, int)} for the transaction viewed by {@code tx} */
+    public boolean contains(TransactionView tx, int inputIndex) {
+        return contains(getKey(tx, inputIndex));
+    }
+
+    /** Records that the signature of the input at {@code inputIndex} of {@code tx} is valid */
+    public void add(Transaction tx, int inputIndex) {
+        add(getKey(tx, inputIndex));
+    }
+
+    /** Same as {@link #add(Transaction, int)} for the transaction viewed by {@code tx} */
+    public void add(TransactionView tx, int inputIndex) {
+        add(getKey(tx, inputIndex));
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    private boolean contains(ByteArrayWrapper key) {
+        boolean found = false;
+        if (key != null) {
+            synchronized (entries) {
+                found = entries.get(key) != null;
+            }
+        }
+        if (found)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+        return found;
+    }
+
+    private void add(ByteArrayWrapper key) {
+        if (capacity == 0 || key == null)
+            return;
+        synchronized (entries) {
+            entries.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Returns the cache key of the input at {@code inputIndex} of {@code tx}, or null if the
+     * transaction isn't finalized or the input isn't signed.
+     */
+    private static ByteArrayWrapper getKey(Transaction tx, int inputIndex) {
+        Transaction.Input txInput = tx.getInput(inputIndex);
+        if (tx.getHash() == null || txInput == null || txInput.prevTxHash == null || txInput.signature == null)
+            return null;
+        return getKey(tx.getHash(), inputIndex, ByteBuffer.wrap(txInput.prevTxHash), txInput.outputIndex,
+                      ByteBuffer.wrap(txInput.signature));
+    }
+
+    /** Same as {@link #getKey(Transaction, int)} for the transaction viewed by {@code tx} */
+    private static ByteArrayWrapper getKey(TransactionView tx, int inputIndex) {
+        ByteBuffer prevTxHash = tx.getPrevTxHash(inputIndex);
+        ByteBuffer signature = tx.getSignature(inputIndex);
+        if (prevTxHash == null || signature == null)
+            return null;
+        return getKey(tx.getHash(), inputIndex, prevTxHash, tx.getOutputIndex(inputIndex), signature);
+    }
+
+    private static ByteArrayWrapper getKey(byte[] txHash, int inputIndex, ByteBuffer prevTxHash, int outputIndex,
+                                           ByteBuffer signature) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(signature);
+            byte[] signatureDigest = md.digest();
+            ByteBuffer key = ByteBuffer.allocate(txHash.length + prevTxHash.remaining()
+                                                 + signatureDigest.length + 2 * Integer.BYTES);
+            key.put(txHash).putInt(inputIndex);
+            key.put(prevTxHash).putInt(outputIndex);
+            key.put(signatureDigest);
+            return new ByteArrayWrapper(key.array());
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException("SHA-256 is not available", x);
+        }
+    }
+}
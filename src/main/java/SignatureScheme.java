@@ -0,0 +1,129 @@
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.security.interfaces.EdECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+
+/**
+ * The signature schemes supported for addresses. The scheme of an address is derived from its
+ * public key, so blocks and transactions may mix addresses of different schemes.
+ */
+public enum SignatureScheme {
+
+    /** RSA signature over SHA-256 */
+    RSA("SHA256withRSA", "RSA") {
+        @Override
+        public byte[] serializeKey(PublicKey key) {
+            // Exponent followed by modulus, as signed by the original transaction format
+            byte[] exponent = ((RSAPublicKey) key).getPublicExponent().toByteArray();
+            byte[] modulus = ((RSAPublicKey) key).getModulus().toByteArray();
+            byte[] raw = new byte[exponent.length + modulus.length];
+            System.arraycopy(exponent, 0, raw, 0, exponent.length);
+            System.arraycopy(modulus, 0, raw, exponent.length, modulus.length);
+            return raw;
+        }
+
+        @Override
+        public int getPrefixLength(PublicKey key) {
+            return ((RSAPublicKey) key).getPublicExponent().toByteArray().length;
+        }
+
+        @Override
+        public PublicKey deserializeKey(byte[] raw, int prefixLength) {
+            if (prefixLength < 1 || prefixLength >= raw.length)
+                throw new IllegalArgumentException("Invalid RSA exponent length " + prefixLength);
+            BigInteger exponent = new BigInteger(Arrays.copyOf(raw, prefixLength));
+            BigInteger modulus = new BigInteger(Arrays.copyOfRange(raw, prefixLength, raw.length));
+            try {
+                return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            } catch (NoSuchAlgorithmException x) {
+                throw new RuntimeException("RSA is not available", x);
+            } catch (InvalidKeySpecException x) {
+                throw new IllegalArgumentException("Invalid RSA key", x);
+            }
+        }
+    },
+
+    /** Edwards-curve signature over Curve25519 (much cheaper to verify, smaller keys and signatures) */
+    ED25519("Ed25519", "Ed25519") {
+        @Override
+        public byte[] serializeKey(PublicKey key) {
+            // The X.509 encoding carries the algorithm identifier, so it never collides with an RSA key
+            return key.getEncoded();
+        }
+
+        @Override
+        public int getPrefixLength(PublicKey key) {
+            return 0;
+        }
+
+        @Override
+        public PublicKey deserializeKey(byte[] raw, int prefixLength) {
+            return decodeKey(raw);
+        }
+    };
+
+    private final String algorithm;
+    private final String keyAlgorithm;
+
+    SignatureScheme(String algorithm, String keyAlgorithm) {
+        this.algorithm = algorithm;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /** Returns the JCA name of the signature algorithm */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /** Returns the bytes of {@code key} used when serializing and signing transactions */
+    public abstract byte[] serializeKey(PublicKey key);
+
+    /**
+     * Returns the length of the first field of the serialized {@code key}, which
+     * {@link #deserializeKey(byte[], int)} needs to split the fields: the exponent of an RSA key, and
+     * 0 for a key serialized as a single field.
+     */
+    public abstract int getPrefixLength(PublicKey key);
+
+    /**
+     * Returns the key of this scheme serialized as {@code raw} by {@link #serializeKey(PublicKey)},
+     * whose first field is {@code prefixLength} bytes long.
+     *
+     * @throws IllegalArgumentException if {@code raw} isn't a valid key of this scheme
+     */
+    public abstract PublicKey deserializeKey(byte[] raw, int prefixLength);
+
+    /**
+     * Returns the key of this scheme whose X.509 encoding is {@code encoded}.
+     *
+     * @throws IllegalArgumentException if {@code encoded} isn't a valid key of this scheme
+     */
+    public PublicKey decodeKey(byte[] encoded) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (NoSuchAlgorithmException x) {
+            throw new RuntimeException(keyAlgorithm + " is not available", x);
+        } catch (InvalidKeySpecException x) {
+            throw new IllegalArgumentException("Invalid " + keyAlgorithm + " key", x);
+        }
+    }
+
+    /**
+     * Returns the scheme of the address {@code key}.
+     *
+     * @throws IllegalArgumentException if the key doesn't belong to a supported scheme
+     */
+    public static SignatureScheme forKey(PublicKey key) {
+        if (key instanceof RSAPublicKey)
+            return RSA;
+        if (key instanceof EdECPublicKey && "Ed25519".equals(((EdECPublicKey) key).getParams().getName()))
+            return ED25519;
+        throw new IllegalArgumentException("Unsupported address key: " + key.getAlgorithm());
+    }
+}
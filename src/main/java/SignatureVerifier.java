@@ -0,0 +1,196 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies the input signatures of a batch of transactions on a fork-join pool.
+ * The output claimed by every input must already be resolved, so verification never touches a
+ * UTXO pool and can run before the sequential connect step. Successful verifications are recorded
+ * in a {@link SignatureCache} so that they are not repeated.
+ */
+public class SignatureVerifier {
+
+    /** Batches with at most this number of signatures are verified by the calling thread */
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private static SignatureVerifier defaultVerifier;
+
+    private final int parallelism;
+    private final ForkJoinPool forkJoinPool;
+    private final SignatureCache signatureCache;
+
+    /**
+     * Creates a verifier which uses at most {@code parallelism} threads. A parallelism of 1 verifies
+     * every batch on the calling thread.
+     */
+    public SignatureVerifier(int parallelism) {
+        this(parallelism, new SignatureCache(SignatureCache.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Creates a verifier which uses at most {@code parallelism} threads and records successful
+     * verifications in {@code signatureCache}.
+     */
+    public SignatureVerifier(int parallelism, SignatureCache signatureCache) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive");
+        this.parallelism = parallelism;
+        this.forkJoinPool = (parallelism == 1) ? null : new ForkJoinPool(parallelism);
+        this.signatureCache = signatureCache;
+    }
+
+    /** Returns the shared verifier which uses all the available processors */
+    public static synchronized SignatureVerifier getDefault() {
+        if (defaultVerifier == null)
+            defaultVerifier = new SignatureVerifier(Runtime.getRuntime().availableProcessors());
+        return defaultVerifier;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    /**
+     * @return true if the input at {@code inputIndex} of {@code tx} is correctly signed by the owner
+     *         of {@code claimedOutput}. The signature verification is skipped if the signature cache already
+     *         holds this input.
+     */
+    public boolean verifyInput(Transaction tx, int inputIndex, Transaction.Output claimedOutput) {
+        if (signatureCache.contains(tx, inputIndex))
+            return true;
+        if (! Crypto.verifySignature(claimedOutput.address, tx.getRawDataToSignParts(inputIndex),
+                                     tx.getInput(inputIndex).signature))
+            return false;
+        signatureCache.add(tx, inputIndex);
+        return true;
+    }
+
+    /**
+     * Same as {@link #verifyInput(Transaction, int, Transaction.Output)} for the transaction viewed
+     * by {@code tx}, whose data to sign is read in place.
+     */
+    public boolean verifyInput(TransactionView tx, int inputIndex, Transaction.Output claimedOutput) {
+        if (signatureCache.contains(tx, inputIndex))
+            return true;
+        byte[] signature = BlockCodec.toArray(tx.getSignature(inputIndex));
+        if (! Crypto.verifySignature(claimedOutput.address, tx.getDataToSignParts(inputIndex), signature))
+            return false;
+        signatureCache.add(tx, inputIndex);
+        return true;
+    }
+
+    /**
+     * Verifies the signatures of all the inputs of {@code txs}, such that {@code claimedOutputs[i][j]}
+     * is the output claimed by the j-th input of {@code txs[i]}, which are either decoded transactions
+     * or views verified in place. A transaction whose claimed outputs are null is considered invalid
+     * without being verified.
+     *
+     * Once an input of a transaction fails, the rest of its inputs are skipped. If {@code failFast}
+     * is set the first failure aborts the whole batch and null is returned.
+     *
+     * @return for each transaction, true if all its signatures are valid
+     */
+    public boolean[] verifyTxs(TransactionAccessor[] txs, Transaction.Output[][] claimedOutputs, boolean failFast) {
+        boolean[] invalid = new boolean[txs.length];
+        int signaturesCount = 0;
+        for (int i = 0 ; i < txs.length ; i++) {
+            if (claimedOutputs[i] == null) {
+                if (failFast)
+                    return null;
+                invalid[i] = true;
+            }
+            else
+                signaturesCount += claimedOutputs[i].length;
+        }
+
+        // Flattening the (tx, input) pairs so that they can be split evenly between the workers
+        int[] txIndices = new int[signaturesCount];
+        int[] inputIndices = new int[signaturesCount];
+        int k = 0;
+        for (int i = 0 ; i < txs.length ; i++) {
+            if (invalid[i])
+                continue;
+            for (int j = 0 ; j < claimedOutputs[i].length ; j++) {
+                txIndices[k] = i;
+                inputIndices[k++] = j;
+            }
+        }
+
+        AtomicBoolean aborted = new AtomicBoolean(false);
+        VerifyTask task = new VerifyTask(this, txs, claimedOutputs, txIndices, inputIndices, 0, signaturesCount,
+                                         invalid, failFast ? aborted : null);
+        if (forkJoinPool == null || signaturesCount <= SEQUENTIAL_THRESHOLD)
+            task.verifyRange();
+        else
+            forkJoinPool.invoke(task);
+
+        if (aborted.get())
+            return null;
+        boolean[] valid = new boolean[txs.length];
+        for (int i = 0 ; i < txs.length ; i++)
+            valid[i] = ! invalid[i];
+        return valid;
+    }
+
+    /**
+     * Verifies the signatures in the range [from, to) of the flattened (tx, input) pairs.
+     */
+    private static class VerifyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized, they share the state of their batch by reference
+        private final transient SignatureVerifier verifier;
+        private final transient TransactionAccessor[] txs;
+        private final transient Transaction.Output[][] claimedOutputs;
+        private final transient int[] txIndices, inputIndices;
+        private final int from, to;
+        private final transient boolean[] invalid;
+        private final transient AtomicBoolean aborted; // null if the batch shouldn't be aborted on failure
+
+        VerifyTask(SignatureVerifier verifier, TransactionAccessor[] txs, Transaction.Output[][] claimedOutputs,
+                   int[] txIndices, int[] inputIndices, int from, int to, boolean[] invalid, AtomicBoolean aborted) {
+            this.verifier = verifier;
+            this.txs = txs;
+            this.claimedOutputs = claimedOutputs;
+            this.txIndices = txIndices;
+            this.inputIndices = inputIndices;
+            this.from = from;
+            this.to = to;
+            this.invalid = invalid;
+            this.aborted = aborted;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SEQUENTIAL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new VerifyTask(verifier, txs, claimedOutputs, txIndices, inputIndices, from, mid, invalid, aborted),
+                          new VerifyTask(verifier, txs, claimedOutputs, txIndices, inputIndices, mid, to, invalid, aborted));
+            }
+            else
+                verifyRange();
+        }
+
+        /** Verifies the whole range on the current thread */
+        void verifyRange() {
+            for (int k = from ; k < to ; k++) {
+                if (aborted != null && aborted.get())
+                    return;
+                int txIndex = txIndices[k];
+                if (invalid[txIndex])
+                    continue;
+                int inputIndex = inputIndices[k];
+                if (! txs[txIndex].verifyInput(verifier, inputIndex, claimedOutputs[txIndex][inputIndex])) {
+                    invalid[txIndex] = true;
+                    if (aborted != null)
+                        aborted.set(true);
+                }
+            }
+        }
+    }
+}
@@ -3,11 +3,13 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-public class Transaction {
+public class Transaction implements TransactionAccessor {
+
+    /** Number of base units in a coin, the smallest fraction of a coin amounts are counted in */
+    public static final long BASE_UNITS_PER_COIN = 100_000_000L;
 
     public class Input {
         /** hash of the Transaction whose output is being used */
@@ -30,6 +32,7 @@ public class Transaction {
                 signature = null;
             else
                 signature = Arrays.copyOf(sig, sig.length);
+            rawTx = null;
         }
 
         public boolean equals(Object other) {
@@ -74,8 +77,13 @@ public class Transaction {
         /** the address or public key of the recipient */
         public PublicKey address;
 
+        /** The address key is replaced by its interned instance, shared by all the outputs paying it */
         public Output(double v, PublicKey addr) {
             value = v;
+            if (addr != null) {
+                interned = Address.intern(addr);
+                addr = interned.getKey();
+            }
             address = addr;
         }
 
@@ -91,22 +99,41 @@ public class Transaction {
 
             if (value != op.value)
                 return false;
-            if (!((RSAPublicKey) address).getPublicExponent().equals(
-                    ((RSAPublicKey) op.address).getPublicExponent()))
-                return false;
-            if (!((RSAPublicKey) address).getModulus().equals(
-                    ((RSAPublicKey) op.address).getModulus()))
-                return false;
-            return true;
+            return getAddress().equals(op.getAddress());
         }
 
         public int hashCode() {
             int hash = 1;
             hash = hash * 17 + (int) value * 10000;
-            hash = hash * 31 + ((RSAPublicKey) address).getPublicExponent().hashCode();
-            hash = hash * 31 + ((RSAPublicKey) address).getModulus().hashCode();
+            hash = hash * 31 + getAddress().hashCode();
             return hash;
         }
+
+        /** @return the signature scheme of the recipient address */
+        public SignatureScheme getScheme() {
+            return getAddress().getScheme();
+        }
+
+        /**
+         * @return the bytes of the recipient address used in serialization and signing. They are
+         *         computed once per address key and must not be modified.
+         */
+        public byte[] getRawAddress() {
+            return getAddress().getRawBytes();
+        }
+
+        /** @return the interned recipient address, with its fingerprint and serialized bytes */
+        public Address getAddress() {
+            Address cached = interned;
+            if (cached == null || cached.getKey() != address) {
+                cached = Address.intern(address);
+                interned = cached;
+            }
+            return cached;
+        }
+
+        /** Interned address of the key, looked up again whenever {@code address} is replaced */
+        private Address interned;
     }
 
     /** hash of the transaction, its unique id */
@@ -114,6 +141,17 @@ public class Transaction {
     private ArrayList<Input> inputs;
     private ArrayList<Output> outputs;
     private boolean coinbase;
+    /**
+     * serialized bytes of the transaction, cached by finalize() and cleared by every mutator. The
+     * public fields of the inputs and outputs are not tracked, so finalize() must be called again
+     * after assigning them.
+     */
+    private byte[] rawTx;
+    /**
+     * serialized outputs shared by the data to sign of every input, cached by finalize() like
+     * {@code rawTx} and cleared when an output is added
+     */
+    private byte[] rawOutputs;
 
     public Transaction() {
         inputs = new ArrayList<Input>();
@@ -144,15 +182,19 @@ public class Transaction {
     public void addInput(byte[] prevTxHash, int outputIndex) {
         Input in = new Input(prevTxHash, outputIndex);
         inputs.add(in);
+        rawTx = null;
     }
 
     public void addOutput(double value, PublicKey address) {
         Output op = new Output(value, address);
         outputs.add(op);
+        rawTx = null;
+        rawOutputs = null;
     }
 
     public void removeInput(int index) {
         inputs.remove(index);
+        rawTx = null;
     }
 
     public void removeInput(UTXO ut) {
@@ -161,6 +203,7 @@ public class Transaction {
             UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
             if (u.equals(ut)) {
                 inputs.remove(i);
+                rawTx = null;
                 return;
             }
         }
@@ -168,84 +211,104 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
-        if (index > inputs.size())
+        byte[][] parts = getRawDataToSignParts(index);
+        if (parts == null)
+            return null;
+        byte[] sigData = Arrays.copyOf(parts[0], parts[0].length + parts[1].length);
+        System.arraycopy(parts[1], 0, sigData, parts[0].length, parts[1].length);
+        return sigData;
+    }
+
+    /**
+     * Returns the data to sign of the input at {@code index} as two consecutive parts: the claimed
+     * outpoint and the serialized outputs. Once the transaction is finalized, the outputs are
+     * serialized once and shared by all the inputs, so each input costs O(1) when verifying its
+     * signature. The returned arrays must not be modified.
+     */
+    public byte[][] getRawDataToSignParts(int index) {
+        if (index < 0 || index >= inputs.size())
             return null;
         Input in = inputs.get(index);
         byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
+        ByteBuffer outpoint = ByteBuffer.allocate((prevTxHash != null ? prevTxHash.length : 0) + Integer.BYTES);
         if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                sigData.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                sigData.add(addressModulus[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+            outpoint.put(prevTxHash);
+        outpoint.putInt(in.outputIndex);
+        return new byte[][] {outpoint.array(), getRawOutputs()};
     }
 
     public void addSignature(byte[] signature, int index) {
         inputs.get(index).addSignature(signature);
     }
 
+    /**
+     * Returns the serialized transaction. Once the transaction is finalized, the bytes are cached
+     * until it is modified again.
+     */
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
+        return getRawTxBytes().clone();
+    }
+
+    /**
+     * Same as {@link #getRawTx()} but returns the cached array itself, which must not be modified.
+     */
+    byte[] getRawTxBytes() {
+        byte[] raw = rawTx;
+        return (raw != null) ? raw : serializeTx();
+    }
+
+    /** Writes the inputs then the outputs in a buffer sized exactly to the serialized transaction */
+    private byte[] serializeTx() {
+        int size = 0;
         for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
+            size += Integer.BYTES;
+            if (in.prevTxHash != null)
+                size += in.prevTxHash.length;
+            if (in.signature != null)
+                size += in.signature.length;
         }
+        byte[] raw = getRawOutputs();
+        size += raw.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Input in : inputs) {
+            if (in.prevTxHash != null)
+                buffer.put(in.prevTxHash);
+            buffer.putInt(in.outputIndex);
+            if (in.signature != null)
+                buffer.put(in.signature);
+        }
+        buffer.put(raw);
+        return buffer.array();
+    }
+
+    /**
+     * Returns every output serialized as its value followed by its address. The bytes are only
+     * cached by finalize(), so that outputs modified before it are never served stale.
+     */
+    private byte[] getRawOutputs() {
+        byte[] raw = rawOutputs;
+        return (raw != null) ? raw : serializeOutputs();
+    }
+
+    private byte[] serializeOutputs() {
+        int size = 0;
+        for (Output op : outputs)
+            size += Double.BYTES + op.getRawAddress().length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
         for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++)
-                rawTx.add(value[i]);
-            for (int i = 0; i < addressExponent.length; i++)
-                rawTx.add(addressExponent[i]);
-            for (int i = 0; i < addressModulus.length; i++)
-                rawTx.add(addressModulus[i]);
+            buffer.putDouble(op.value);
+            buffer.put(op.getRawAddress());
         }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+        return buffer.array();
     }
 
     public void finalize() {
         try {
+            rawOutputs = serializeOutputs();
+            rawTx = serializeTx();
             MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
+            md.update(rawTx);
             hash = md.digest();
         } catch (NoSuchAlgorithmException x) {
             x.printStackTrace(System.err);
@@ -290,6 +353,17 @@ public class Transaction {
         return outputs.size();
     }
 
+    @Override
+    public UTXO getClaimedUtxo(int index) {
+        Input in = inputs.get(index);
+        return (in.prevTxHash != null) ? new UTXO(in.prevTxHash, in.outputIndex) : null;
+    }
+
+    @Override
+    public boolean verifyInput(SignatureVerifier verifier, int index, Output claimedOutput) {
+        return verifier.verifyInput(this, index, claimedOutput);
+    }
+
     public boolean equals(Object other) {
         if (other == null) {
             return false;
@@ -0,0 +1,30 @@
+/**
+ * Read access to the fields of a finalized transaction that {@link TxHandler} validates. It is
+ * implemented by the decoded {@link Transaction} and by the {@link TransactionView} over its
+ * encoding, so the validation rules are written once and a transaction can be validated in place
+ * without building its object graph.
+ */
+public interface TransactionAccessor {
+
+    /** Returns the hash of the transaction */
+    byte[] getHash();
+
+    int numInputs();
+
+    /** Returns the outpoint claimed by the input at {@code index}, or null if it has no previous transaction hash */
+    UTXO getClaimedUtxo(int index);
+
+    int numOutputs();
+
+    /**
+     * Returns the output at {@code index}, or null if there is none or its address isn't a valid
+     * key of its scheme
+     */
+    Transaction.Output getOutput(int index);
+
+    /**
+     * Verifies the signature of the input at {@code index} against {@code claimedOutput} with
+     * {@code verifier}, which reads the signed data in place for a view.
+     */
+    boolean verifyInput(SignatureVerifier verifier, int index, Transaction.Output claimedOutput);
+}
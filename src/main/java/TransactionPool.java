@@ -1,37 +1,267 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
 
+/**
+ * The unconfirmed transactions, indexed by hash, by fee rate and by the outpoints they spend. The
+ * fee rate of a transaction is its fee divided by its size in bytes, and the index is updated on
+ * each addition and removal in O(log n), so block templates are filled from the highest fee rate
+ * down without sorting the pool. The spent outpoints find the double spends of a transaction, and
+ * the pool transactions spending its outputs, in O(1) per outpoint.
+ *
+ * The total size of the transactions is bounded by a budget in bytes. Once it's exceeded, the
+ * transactions with the lowest fee rate are evicted along with their descendants, and the minimum
+ * fee rate of the pool is raised above theirs, so that the next transactions paying no more are
+ * rejected before being validated. The minimum fee rate then halves every
+ * {@link #MIN_FEE_RATE_HALF_LIFE_NANOS} nanoseconds.
+ */
 public class TransactionPool {
 
-    private HashMap<ByteArrayWrapper, Transaction> H;
+    /** Default maximum total size in bytes of the pool transactions */
+    public static final long DEFAULT_MAX_SIZE = 300_000_000L;
+    /** Amount by which the minimum fee rate exceeds the fee rate of the last evicted transaction */
+    public static final double INCREMENTAL_FEE_RATE = 1.0 / Transaction.BASE_UNITS_PER_COIN;
+    /** Time in which the minimum fee rate halves */
+    public static final long MIN_FEE_RATE_HALF_LIFE_NANOS = 10L * 60 * 1_000_000_000L;
+
+    /** Orders the entries from the highest fee rate down, then by arrival */
+    private static final Comparator<Entry> BY_FEE_RATE =
+        Comparator.comparingDouble((Entry e) -> -e.feeRate).thenComparingLong(e -> e.sequence);
+
+    private HashMap<ByteArrayWrapper, Entry> H;
+    private TreeSet<Entry> byFeeRate;
+    // The pool transaction spending each outpoint
+    private HashMap<UTXO, Transaction> spenders;
+    // The arrival number of the next transaction
+    private long nextSequence;
+    // The total size of the transactions and its budget, in bytes
+    private long totalSize;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    // The minimum fee rate when it was last raised, and the time at which it was
+    private double minFeeRate;
+    private long minFeeRateTime;
+    // The log of the changes to this pool, or null
+    private TransactionPoolLog log;
 
     public TransactionPool() {
-        H = new HashMap<ByteArrayWrapper, Transaction>();
+        H = new HashMap<ByteArrayWrapper, Entry>();
+        byFeeRate = new TreeSet<Entry>(BY_FEE_RATE);
+        spenders = new HashMap<UTXO, Transaction>();
     }
 
     public TransactionPool(TransactionPool txPool) {
-        H = new HashMap<ByteArrayWrapper, Transaction>(txPool.H);
+        H = new HashMap<ByteArrayWrapper, Entry>(txPool.H);
+        byFeeRate = new TreeSet<Entry>(txPool.byFeeRate);
+        spenders = new HashMap<UTXO, Transaction>(txPool.spenders);
+        nextSequence = txPool.nextSequence;
+        totalSize = txPool.totalSize;
+        maxSize = txPool.maxSize;
+        minFeeRate = txPool.minFeeRate;
+        minFeeRateTime = txPool.minFeeRateTime;
+    }
+
+    /** Logs the changes to this pool to {@code log} from now on, or stops logging them if it is null */
+    public void setLog(TransactionPoolLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets the maximum total size in bytes of the pool transactions, evicting the ones with the
+     * lowest fee rate if they exceed it.
+     */
+    public void setMaxSize(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Maximum size must be non-negative");
+        this.maxSize = maxSize;
+        trimToSize();
+    }
+
+    /** Returns the total size in bytes of the pool transactions */
+    public long getSize() {
+        return totalSize;
     }
 
-    public void addTransaction(Transaction tx) {
+    /**
+     * Returns the minimum fee rate of a transaction to be added, which is 0 unless transactions
+     * were evicted recently.
+     */
+    public double getMinFeeRate() {
+        if (minFeeRate == 0)
+            return 0;
+        double halvings = (double) (System.nanoTime() - minFeeRateTime) / MIN_FEE_RATE_HALF_LIFE_NANOS;
+        double rate = minFeeRate * Math.pow(0.5, halvings);
+        if (rate < INCREMENTAL_FEE_RATE / 2)
+            minFeeRate = rate = 0;
+        return rate;
+    }
+
+    /** Adds {@code tx} with no fee, see {@link #addTransaction(Transaction, double)} */
+    public boolean addTransaction(Transaction tx) {
+        return addTransaction(tx, 0);
+    }
+
+    /**
+     * Adds {@code tx} paying {@code fee}, the total value of the outputs it claims minus the total
+     * value of its outputs. Nothing is done if the pool already holds the transaction. The caller
+     * must ensure that it doesn't spend an outpoint spent by another pool transaction, and should
+     * check its fee rate against {@link #getMinFeeRate()} before validating it.
+     *
+     * @return true if the transaction has been added and not evicted right away to fit the budget
+     */
+    public boolean addTransaction(Transaction tx, double fee) {
         ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
-        H.put(hash, tx);
+        if (H.containsKey(hash))
+            return false;
+        Entry entry = new Entry(tx, fee, nextSequence++);
+        H.put(hash, entry);
+        byFeeRate.add(entry);
+        totalSize += entry.size;
+        for (Transaction.Input in : tx.getInputs()) {
+            if (in.prevTxHash != null)
+                spenders.put(new UTXO(in.prevTxHash, in.outputIndex), tx);
+        }
+        if (log != null)
+            log.logAddition(tx);
+        trimToSize();
+        return H.containsKey(hash);
     }
 
     public void removeTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        H.remove(hash);
+        Entry entry = H.remove(hash);
+        if (entry == null)
+            return;
+        byFeeRate.remove(entry);
+        totalSize -= entry.size;
+        for (Transaction.Input in : entry.tx.getInputs()) {
+            if (in.prevTxHash != null)
+                spenders.remove(new UTXO(in.prevTxHash, in.outputIndex), entry.tx);
+        }
+        if (log != null)
+            log.logRemoval(txHash);
+    }
+
+    /**
+     * Removes the transaction with hash {@code txHash} along with its descendants, the pool
+     * transactions spending its outputs and theirs recursively.
+     */
+    public void removeTransactionAndDescendants(byte[] txHash) {
+        ArrayDeque<Transaction> removed = new ArrayDeque<>();
+        Transaction tx = getTransaction(txHash);
+        if (tx != null)
+            removed.add(tx);
+        while (! removed.isEmpty()) {
+            tx = removed.poll();
+            // A transaction spending several outputs of a removed one is queued for each
+            if (getTransaction(tx.getHash()) == null)
+                continue;
+            removeTransaction(tx.getHash());
+            for (int index = 0; index < tx.numOutputs(); index++) {
+                Transaction child = spenders.get(new UTXO(tx.getHash(), index));
+                if (child != null)
+                    removed.add(child);
+            }
+        }
+    }
+
+    /**
+     * Removes the pool transactions conflicting with {@code tx}, those other than {@code tx} which
+     * spend an outpoint it spends, along with their descendants.
+     */
+    public void removeConflicts(TransactionAccessor tx) {
+        byte[] txHash = tx.getHash();
+        for (int index = 0; index < tx.numInputs(); index++) {
+            UTXO utxo = tx.getClaimedUtxo(index);
+            if (utxo == null)
+                continue;
+            Transaction spender = spenders.get(utxo);
+            if (spender != null && ! Arrays.equals(spender.getHash(), txHash))
+                removeTransactionAndDescendants(spender.getHash());
+        }
     }
 
     public Transaction getTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        return H.get(hash);
+        Entry entry = H.get(hash);
+        return (entry != null) ? entry.tx : null;
+    }
+
+    /** Returns the pool transaction spending {@code utxo}, or null */
+    public Transaction getSpender(UTXO utxo) {
+        return spenders.get(utxo);
+    }
+
+    /** Returns the fee rate of the transaction with hash {@code txHash}, or NaN if it isn't in the pool */
+    public double getFeeRate(byte[] txHash) {
+        Entry entry = H.get(new ByteArrayWrapper(txHash));
+        return (entry != null) ? entry.feeRate : Double.NaN;
+    }
+
+    /** Returns the number of transactions in the pool */
+    public int size() {
+        return H.size();
     }
 
     public ArrayList<Transaction> getTransactions() {
         ArrayList<Transaction> T = new ArrayList<Transaction>();
-        for (Transaction tx : H.values())
-            T.add(tx);
+        for (Entry entry : H.values())
+            T.add(entry.tx);
         return T;
     }
+
+    /**
+     * Returns the transactions from the highest fee rate down, transactions with the same fee rate
+     * in order of arrival. The iterator walks the index in place, so taking the first k transactions
+     * costs O(k + log n), but the pool must not be modified while it is in use.
+     */
+    public Iterator<Transaction> getTransactionsByFeeRate() {
+        Iterator<Entry> entries = byFeeRate.iterator();
+        return new Iterator<Transaction>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Transaction next() {
+                return entries.next().tx;
+            }
+        };
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /**
+     * Evicts the transactions with the lowest fee rate along with their descendants as long as the
+     * pool exceeds its budget, each in O(log n), and raises the minimum fee rate above theirs.
+     */
+    private void trimToSize() {
+        while (totalSize > maxSize) {
+            Entry lowest = byFeeRate.last();
+            minFeeRate = Math.max(getMinFeeRate(), lowest.feeRate + INCREMENTAL_FEE_RATE);
+            minFeeRateTime = System.nanoTime();
+            removeTransactionAndDescendants(lowest.tx.getHash());
+        }
+    }
+
+    /** A transaction of the pool with its size and fee rate, in fee per byte of the raw transaction */
+    private static final class Entry {
+        final Transaction tx;
+        final int size;
+        final double feeRate;
+        final long sequence;
+
+        Entry(Transaction tx, double fee, long sequence) {
+            this.tx = tx;
+            this.size = tx.getRawTxBytes().length;
+            this.feeRate = fee / Math.max(size, 1);
+            this.sequence = sequence;
+        }
+    }
 }
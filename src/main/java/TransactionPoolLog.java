@@ -0,0 +1,301 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of the additions to and removals from a transaction pool, so the pool survives
+ * a restart.
+ *
+ * {@code mempool.log} appends one record per change: its type, the length and CRC-32 of its payload
+ * and the payload, which is the transaction encoded by {@link BlockCodec} for an addition and the
+ * transaction hash for a removal. Once the log holds more records than the compaction threshold and
+ * than the pool holds transactions, the pool is written as addition records to {@code mempool.dat},
+ * which atomically replaces the previous snapshot, and the log is emptied.
+ *
+ * The changes are queued and written by a background thread, which forces a whole batch of records
+ * to disk with a single fsync, so logging a change doesn't wait for the disk. A change is durable
+ * once {@link #sync()} returns.
+ *
+ * Opening the log replays the snapshot and then the log, decoding the transactions in parallel. A
+ * record which was not fully written before a crash ends the replay and is truncated.
+ */
+public class TransactionPoolLog implements Closeable {
+
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    private static final String LOG_FILE = "mempool.log";
+    private static final String SNAPSHOT_FILE = "mempool.dat";
+    private static final byte ADD = 1, REMOVE = 2;
+    private static final int RECORD_HEADER_SIZE = 1 + 2 * Integer.BYTES;
+
+    /** A queued change, or a request to sync or close the log when {@code type} is 0 */
+    private static class Record {
+        final byte type;
+        final Transaction tx;
+        final byte[] txHash;
+        final CompletableFuture<Void> done;
+        final boolean close;
+
+        Record(byte type, Transaction tx, byte[] txHash, CompletableFuture<Void> done, boolean close) {
+            this.type = type;
+            this.tx = tx;
+            this.txHash = txHash;
+            this.done = done;
+            this.close = close;
+        }
+    }
+
+    private final Path directory;
+    private final int compactionThreshold;
+    private final FileChannel logChannel;
+    private final LinkedBlockingQueue<Record> queue;
+    private final Thread writer;
+    /** The transactions of the pool as of the records written so far, only used by the writer */
+    private final LinkedHashMap<ByteArrayWrapper, Transaction> transactions;
+    private final List<Transaction> recoveredTransactions;
+    private int logRecords;
+    private volatile IOException failure;
+    private boolean closed;
+
+    /** Opens or creates the log in {@code directory} with the default compaction threshold */
+    public TransactionPoolLog(Path directory) throws IOException {
+        this(directory, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens or creates the log in {@code directory} and replays it. The log is compacted once it
+     * holds more than {@code compactionThreshold} records.
+     */
+    public TransactionPoolLog(Path directory, int compactionThreshold) throws IOException {
+        if (compactionThreshold < 1)
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        this.directory = directory;
+        this.compactionThreshold = compactionThreshold;
+        Files.createDirectories(directory);
+
+        transactions = new LinkedHashMap<>();
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshotFile))
+            replay(ByteBuffer.wrap(Files.readAllBytes(snapshotFile)));
+        logChannel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                                      StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer log = ByteBuffer.allocate((int) logChannel.size());
+        while (log.hasRemaining() && logChannel.read(log, log.position()) >= 0)
+            ;
+        log.flip();
+        logRecords = replay(log);
+        // Drop the record torn by a crash, if any
+        logChannel.truncate(log.position());
+        logChannel.position(log.position());
+        recoveredTransactions = new ArrayList<>(transactions.values());
+
+        queue = new LinkedBlockingQueue<>();
+        writer = new Thread(this::write, "mempool-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Returns the transactions of the pool when the log was opened, in the order they were added */
+    public List<Transaction> getRecoveredTransactions() {
+        return recoveredTransactions;
+    }
+
+    /** Logs the addition of the finalized {@code tx} to the pool, without waiting for the disk */
+    public void logAddition(Transaction tx) {
+        queue.add(new Record(ADD, tx, tx.getHash(), null, false));
+    }
+
+    /** Logs the removal of the transaction with hash {@code txHash}, without waiting for the disk */
+    public void logRemoval(byte[] txHash) {
+        queue.add(new Record(REMOVE, null, txHash, null, false));
+    }
+
+    /**
+     * Waits until the changes logged so far are forced to disk.
+     *
+     * @throws IOException if the log couldn't be written
+     */
+    public void sync() throws IOException {
+        await(new Record((byte) 0, null, null, new CompletableFuture<>(), false));
+    }
+
+    /** Writes the pending changes to disk and stops the log */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            await(new Record((byte) 0, null, null, new CompletableFuture<>(), true));
+        } finally {
+            logChannel.close();
+        }
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    private void await(Record request) throws IOException {
+        queue.add(request);
+        try {
+            request.done.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException x) {
+            throw (IOException) x.getCause();
+        }
+    }
+
+    /**
+     * Applies the records of {@code buffer} to the transactions until the end of the buffer or the
+     * first incomplete or corrupted record, where the buffer is left. Returns the number of records.
+     */
+    private int replay(ByteBuffer buffer) {
+        List<Byte> types = new ArrayList<>();
+        List<ByteBuffer> payloads = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if ((type != ADD && type != REMOVE) || length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+            buffer.position(buffer.position() + length);
+            types.add(type);
+            payloads.add(payload);
+        }
+
+        // Decoding hashes every transaction, so it runs in parallel before the records are applied in order
+        Transaction[] txs = new Transaction[types.size()];
+        IntStream.range(0, txs.length).parallel()
+                 .filter(i -> types.get(i) == ADD)
+                 .forEach(i -> txs[i] = BlockCodec.decodeTransaction(payloads.get(i)));
+        for (int i = 0; i < txs.length; i++) {
+            if (txs[i] != null)
+                transactions.put(new ByteArrayWrapper(txs[i].getHash()), txs[i]);
+            else {
+                byte[] txHash = new byte[payloads.get(i).remaining()];
+                payloads.get(i).get(txHash);
+                transactions.remove(new ByteArrayWrapper(txHash));
+            }
+        }
+        return txs.length;
+    }
+
+    /** The loop of the writer thread: writes and forces every batch of queued records */
+    private void write() {
+        List<Record> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException x) {
+                return;
+            }
+            queue.drainTo(batch);
+            boolean close = false;
+            try {
+                if (failure == null)
+                    writeBatch(batch);
+            } catch (IOException x) {
+                failure = x;
+            } catch (RuntimeException x) {
+                failure = new IOException("Failure in writing the transaction pool log", x);
+            }
+            for (Record record : batch) {
+                if (record.done == null)
+                    continue;
+                if (failure != null)
+                    record.done.completeExceptionally(failure);
+                else
+                    record.done.complete(null);
+                close |= record.close;
+            }
+            batch.clear();
+            if (close)
+                return;
+        }
+    }
+
+    private void writeBatch(List<Record> batch) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (Record record : batch) {
+            if (record.type == 0)
+                continue;
+            ByteArrayWrapper hash = new ByteArrayWrapper(record.txHash);
+            if (record.type == ADD)
+                transactions.put(hash, record.tx);
+            else
+                transactions.remove(hash);
+            byte[] payload = (record.type == ADD) ? BlockCodec.encodeTransaction(record.tx) : record.txHash;
+            buffers.add(encodeRecord(record.type, payload));
+        }
+        if (buffers.isEmpty())
+            return;
+        ByteBuffer[] records = buffers.toArray(new ByteBuffer[0]);
+        while (records[records.length - 1].hasRemaining())
+            logChannel.write(records);
+        logRecords += records.length;
+        if (logRecords > compactionThreshold && logRecords > transactions.size())
+            compact();
+        else
+            logChannel.force(false);
+    }
+
+    /** Writes the transactions to a new snapshot and empties the log */
+    private void compact() throws IOException {
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        Path tempFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Transaction tx : transactions.values()) {
+                ByteBuffer record = encodeRecord(ADD, BlockCodec.encodeTransaction(tx));
+                while (record.hasRemaining())
+                    channel.write(record);
+            }
+            channel.force(true);
+        }
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Replaying the old log over the new snapshot gives the same transactions, so a crash here is harmless
+        logChannel.truncate(0);
+        logChannel.position(0);
+        logChannel.force(true);
+        logRecords = 0;
+    }
+
+    private static ByteBuffer encodeRecord(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.put(type);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+}
@@ -0,0 +1,222 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * A read-only flyweight view of a transaction encoded by {@link BlockCodec}. Wrapping a buffer only
+ * records the offsets of the inputs and outputs, and every accessor reads the encoded bytes in
+ * place, so a transaction can be hashed and validated without building its object graph.
+ *
+ * The hashed and signed fields of each input (previous transaction hash, output index and
+ * signature) and of each output (value and address) are contiguous in the encoding, so they are
+ * fed to digests and signatures as slices of the buffer.
+ */
+public final class TransactionView implements TransactionAccessor {
+
+    /** Per input: the offset of the previous transaction hash, its length and the signature length */
+    private static final int INPUT_STRIDE = 3;
+    /** Per output: the offset of the value, the address length, the prefix length and the scheme */
+    private static final int OUTPUT_STRIDE = 4;
+    /** The transaction which the built outputs belong to, since outputs are inner objects */
+    private static final Transaction OUTPUT_OWNER = new Transaction();
+
+    private final ByteBuffer buffer;
+    private final int[] inputs;
+    private final int[] outputs;
+    private volatile byte[] hash;
+
+    private TransactionView(ByteBuffer buffer, int[] inputs, int[] outputs) {
+        this.buffer = buffer;
+        this.inputs = inputs;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Returns a view of the transaction encoded in the remaining bytes of {@code buffer}, which must
+     * not be modified while the view is in use.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static TransactionView wrap(ByteBuffer buffer) {
+        ByteBuffer encoded = buffer.duplicate();
+        TransactionView view = read(encoded);
+        if (encoded.hasRemaining())
+            throw new IllegalArgumentException("Trailing bytes after the transaction");
+        return view;
+    }
+
+    /**
+     * Returns a view of the transaction encoded at the position of {@code buffer} and moves the
+     * position after it.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    static TransactionView read(ByteBuffer buffer) {
+        try {
+            int start = buffer.position();
+            int inputCount = BlockCodec.getCount(buffer);
+            int[] inputs = new int[inputCount * INPUT_STRIDE];
+            for (int i = 0; i < inputs.length; i += INPUT_STRIDE) {
+                int prevTxHashLength = BlockCodec.getVarint(buffer) - 1;
+                int signatureLength = BlockCodec.getVarint(buffer) - 1;
+                inputs[i] = buffer.position() - start;
+                inputs[i + 1] = prevTxHashLength;
+                inputs[i + 2] = signatureLength;
+                BlockCodec.skip(buffer, Math.max(prevTxHashLength, 0) + Integer.BYTES + Math.max(signatureLength, 0));
+            }
+            int outputCount = BlockCodec.getCount(buffer);
+            int[] outputs = new int[outputCount * OUTPUT_STRIDE];
+            for (int i = 0; i < outputs.length; i += OUTPUT_STRIDE)
+                BlockCodec.readOutput(buffer, start, outputs, i);
+            ByteBuffer encoded = buffer.duplicate();
+            encoded.position(start);
+            encoded = encoded.slice().asReadOnlyBuffer();
+            encoded.limit(buffer.position() - start);
+            return new TransactionView(encoded, inputs, outputs);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException x) {
+            throw new IllegalArgumentException("Truncated transaction", x);
+        }
+    }
+
+    /** Returns the encoded transaction */
+    public ByteBuffer getEncoded() {
+        return buffer.duplicate();
+    }
+
+    public int numInputs() {
+        return inputs.length / INPUT_STRIDE;
+    }
+
+    /** Returns the hash of the transaction whose output the input at {@code index} claims, or null */
+    public ByteBuffer getPrevTxHash(int index) {
+        int length = inputs[index * INPUT_STRIDE + 1];
+        return (length < 0) ? null : slice(inputs[index * INPUT_STRIDE], length);
+    }
+
+    /** Returns the index of the output the input at {@code index} claims */
+    public int getOutputIndex(int index) {
+        int i = index * INPUT_STRIDE;
+        return buffer.getInt(inputs[i] + Math.max(inputs[i + 1], 0));
+    }
+
+    /** Returns the signature of the input at {@code index}, or null */
+    public ByteBuffer getSignature(int index) {
+        int i = index * INPUT_STRIDE;
+        int length = inputs[i + 2];
+        return (length < 0) ? null : slice(inputs[i] + Math.max(inputs[i + 1], 0) + Integer.BYTES, length);
+    }
+
+    public int numOutputs() {
+        return outputs.length / OUTPUT_STRIDE;
+    }
+
+    public double getValue(int index) {
+        return buffer.getDouble(outputs[index * OUTPUT_STRIDE]);
+    }
+
+    /** Returns the signature scheme of the recipient address of the output at {@code index} */
+    public SignatureScheme getScheme(int index) {
+        return SignatureScheme.values()[outputs[index * OUTPUT_STRIDE + 3]];
+    }
+
+    /** Returns the bytes of the recipient address of the output at {@code index}, as serialized and signed */
+    public ByteBuffer getRawAddress(int index) {
+        int i = index * OUTPUT_STRIDE;
+        return slice(outputs[i] + Double.BYTES, outputs[i + 1]);
+    }
+
+    /**
+     * Returns the interned recipient address of the output at {@code index}, whose key is only
+     * deserialized the first time the address is seen.
+     *
+     * @throws IllegalArgumentException if the address isn't a valid key of its scheme
+     */
+    public Address getAddress(int index) {
+        return Address.intern(getScheme(index), getRawAddress(index), outputs[index * OUTPUT_STRIDE + 2]);
+    }
+
+    /**
+     * Returns the hash of the transaction, computed on the first call over the encoded bytes. It's
+     * the same as the hash of the finalized {@link Transaction}.
+     */
+    public byte[] getHash() {
+        byte[] h = hash;
+        if (h == null) {
+            MessageDigest md = BlockCodec.sha256();
+            for (int i = 0; i < inputs.length; i += INPUT_STRIDE)
+                md.update(slice(inputs[i], Math.max(inputs[i + 1], 0) + Integer.BYTES + Math.max(inputs[i + 2], 0)));
+            for (int i = 0; i < outputs.length; i += OUTPUT_STRIDE)
+                md.update(slice(outputs[i], Double.BYTES + outputs[i + 1]));
+            h = md.digest();
+            hash = h;
+        }
+        return h.clone();
+    }
+
+    /**
+     * Returns the data to sign of the input at {@code index} as consecutive slices of the encoding:
+     * the claimed outpoint followed by every output, as in {@link Transaction#getRawDataToSign(int)}.
+     */
+    public ByteBuffer[] getDataToSignParts(int index) {
+        ByteBuffer[] parts = new ByteBuffer[1 + numOutputs()];
+        int i = index * INPUT_STRIDE;
+        parts[0] = slice(inputs[i], Math.max(inputs[i + 1], 0) + Integer.BYTES);
+        for (int j = 0; j < outputs.length; j += OUTPUT_STRIDE)
+            parts[1 + j / OUTPUT_STRIDE] = slice(outputs[j], Double.BYTES + outputs[j + 1]);
+        return parts;
+    }
+
+    /**
+     * Builds and finalizes the {@link Transaction} of this view.
+     *
+     * @throws IllegalArgumentException if an address isn't a valid key of its scheme
+     */
+    public Transaction toTransaction() {
+        Transaction tx = new Transaction();
+        for (int i = 0; i < numInputs(); i++) {
+            tx.addInput(BlockCodec.toArray(getPrevTxHash(i)), getOutputIndex(i));
+            tx.addSignature(BlockCodec.toArray(getSignature(i)), i);
+        }
+        for (int i = 0; i < numOutputs(); i++)
+            tx.addOutput(getValue(i), getAddress(i).getKey());
+        tx.finalize();
+        return tx;
+    }
+
+    @Override
+    public UTXO getClaimedUtxo(int index) {
+        ByteBuffer prevTxHash = getPrevTxHash(index);
+        return (prevTxHash != null) ? new UTXO(BlockCodec.toArray(prevTxHash), getOutputIndex(index)) : null;
+    }
+
+    /**
+     * Returns the output at {@code index} paying its interned address, or null if there is none or
+     * the address bytes aren't a valid key of its scheme, in which case {@link #toTransaction()}
+     * throws.
+     */
+    @Override
+    public Transaction.Output getOutput(int index) {
+        if (index < 0 || index >= numOutputs())
+            return null;
+        try {
+            return OUTPUT_OWNER.new Output(getValue(index), getAddress(index).getKey());
+        } catch (IllegalArgumentException x) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean verifyInput(SignatureVerifier verifier, int index, Transaction.Output claimedOutput) {
+        return verifier.verifyInput(this, index, claimedOutput);
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset).limit(offset + length);
+        return slice.slice();
+    }
+}
@@ -3,20 +3,31 @@
  * and that I worked on this assignment independently without any unauthorized help” - Amr Momtaz
  */
 
-import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.PriorityQueue;
 
 public class TxHandler {
 
     private UTXOPool utxoPool;
+    private final SignatureVerifier signatureVerifier;
 
     /**
      * Creates a public ledger whose current UTXOPool (collection of unspent transaction outputs) is
      * {@code utxoPool}. 
      */
-    public TxHandler(UTXOPool utxoPool) { this.utxoPool = new UTXOPool(utxoPool); }
+    public TxHandler(UTXOPool utxoPool) { this(utxoPool, SignatureVerifier.getDefault()); }
+
+    /**
+     * Creates a public ledger whose current UTXOPool is {@code utxoPool} and which verifies the
+     * signatures of proposed transactions using {@code signatureVerifier}.
+     */
+    public TxHandler(UTXOPool utxoPool, SignatureVerifier signatureVerifier) {
+        this.utxoPool = new UTXOPool(utxoPool);
+        this.signatureVerifier = signatureVerifier;
+    }
 
     public UTXOPool getUtxoPool() {
         return utxoPool;
@@ -27,24 +38,22 @@ public class TxHandler {
      * (1) all outputs claimed by {@code tx} are in the current UTXO pool, 
      * (2) the signatures on each input of {@code tx} are valid, 
      * (3) no UTXO is claimed multiple times by {@code tx},
-     * (4) all of {@code tx}s output values are non-negative, and
+     * (4) all of {@code tx}s output values are non-negative, and can be held by the UTXO pool
+     *     (see {@link UTXOPool#canHold(double)}), and all of its output addresses are valid keys, and
      * (5) the sum of {@code tx}s input values is greater than or equal to the sum of its output
      *     values; and false otherwise.
      */
     public boolean isValidTx(Transaction tx) {
+        return getClaimedUtxosIfValid(tx) != null;
+    }
 
-        // Ensures that there is no empty transactions with zero inputs and outputs
-        if ((tx.getInputs() == null || tx.getInputs().size() == 0) &&
-            (tx.getOutputs() == null || tx.getOutputs().size() == 0))
-            return false;
-
-        if (! existsInUTXO(tx))
-            return false;
-
-        if (! ensureSignatures(tx))
-            return false;
-
-        return ensureTxValues(tx);
+    /**
+     * Same as {@link #isValidTx(Transaction)} for the transaction viewed by {@code tx}, which is
+     * validated in place without decoding it. Only the claimed outpoints are copied to look them up,
+     * and the output addresses are checked to decode to keys.
+     */
+    public boolean isValidTx(TransactionView tx) {
+        return getClaimedUtxosIfValid(tx) != null;
     }
 
     ///
@@ -52,21 +61,58 @@ public class TxHandler {
     ///
 
     /**
-     *  Ensures that the claimed output exists in the UTXO only one time.
+     * Validates {@code tx} against the current UTXO pool and returns the UTXOs claimed by its inputs
+     * (in input order) if it is valid, null otherwise.
+     * Each input is looked up in the pool exactly once, and the resolved output is reused by the
+     * signature, value and spend steps.
+     */
+    private UTXO[] getClaimedUtxosIfValid(TransactionAccessor tx) {
+
+        if (isEmptyTx(tx))
+            return null;
+
+        UTXO[] claimedUtxos = new UTXO[tx.numInputs()];
+        Transaction.Output[] claimedOutputs = new Transaction.Output[tx.numInputs()];
+        if (! existsInUTXO(tx, claimedUtxos, claimedOutputs))
+            return null;
+
+        if (! ensureSignatures(tx, claimedOutputs))
+            return null;
+
+        if (! ensureTxValues(tx, claimedOutputs))
+            return null;
+
+        return claimedUtxos;
+    }
+
+    /**
+     * Ensures that there is no empty transactions with zero inputs and outputs
+     */
+    private boolean isEmptyTx(TransactionAccessor tx) {
+        return tx.numInputs() == 0 && tx.numOutputs() == 0;
+    }
+
+    /**
+     *  Ensures that the claimed output exists in the UTXO only one time, filling {@code claimedUtxos}
+     *  and {@code claimedOutputs} with the resolved UTXO and output of each input.
      *  Satisfies rules (1) & (3)
      */
-    private boolean existsInUTXO(Transaction tx) {
+    private boolean existsInUTXO(TransactionAccessor tx, UTXO[] claimedUtxos, Transaction.Output[] claimedOutputs) {
         HashSet<UTXO> visitedUTXO = new HashSet<>();
-        for (Transaction.Input txInput : tx.getInputs()) {
-            UTXO utxo = getUtxoIfAny(txInput);
-            // Transaction not found in UTXO
+        for (int index = 0; index < claimedUtxos.length; index++) {
+            UTXO utxo = tx.getClaimedUtxo(index);
             if (utxo == null)
                 return false;
-            // Same transaction in UTXO was taken as input more than one time
-            if (visitedUTXO.contains(utxo))
+            Transaction.Output txOutput = utxoPool.getTxOutput(utxo);
+            // Transaction not found in UTXO
+            if (txOutput == null)
                 return false;
+            // Same transaction in UTXO was taken as input more than one time
             // Adding it to Visited UTXO set to satisfy rule (3)
-            visitedUTXO.add(utxo);
+            if (! visitedUTXO.add(utxo))
+                return false;
+            claimedUtxos[index] = utxo;
+            claimedOutputs[index] = txOutput;
         }
         return true;
     }
@@ -75,34 +121,28 @@ public class TxHandler {
      * Ensures that all transactions inputs are signed correctly by its owner.
      * Satisfies rule (2).
      */
-    private boolean ensureSignatures(Transaction tx) {
-        int index = 0;
-        for (Transaction.Input txInput : tx.getInputs()) {
-            UTXO utxo = getUtxoIfAny(txInput);
-            if (utxo == null)
-                throw new RuntimeException("Failed to get UTXO when trying to ensure signature");
-
-            PublicKey publicKey = utxoPool.getTxOutput(utxo).address;
-            if (! Crypto.verifySignature(publicKey, tx.getRawDataToSign(index++), txInput.signature))
+    private boolean ensureSignatures(TransactionAccessor tx, Transaction.Output[] claimedOutputs) {
+        for (int index = 0 ; index < claimedOutputs.length ; index++) {
+            if (! tx.verifyInput(signatureVerifier, index, claimedOutputs[index]))
                 return false;
         }
         return true;
     }
 
     /**
-     * Ensures that there are no negative numbers in the Tx output and that Sum(Tx.outputs) <= Sum(Tx.inputs)
+     * Ensures that there are no negative numbers nor values the UTXO pool can't hold in the Tx output,
+     * that every output address is a valid key and that Sum(Tx.outputs) <= Sum(Tx.inputs)
      * Satisfies Rule (4) & (5).
      */
-    private boolean ensureTxValues(Transaction tx) {
+    private boolean ensureTxValues(TransactionAccessor tx, Transaction.Output[] claimedOutputs) {
         double outputsSum = 0, inputsSum = 0;
-        for (Transaction.Output txOutput : tx.getOutputs()) {
-            if (txOutput.value < 0)
+        for (int index = 0; index < tx.numOutputs(); index++) {
+            Transaction.Output txOutput = tx.getOutput(index);
+            if (txOutput == null || txOutput.value < 0 || ! utxoPool.canHold(txOutput.value))
                 return false;
             outputsSum += txOutput.value;
         }
-        for (Transaction.Input txInput : tx.getInputs()) {
-            UTXO utxo = getUtxoIfAny(txInput);
-            Transaction.Output txOutput = utxoPool.getTxOutput(utxo);
+        for (Transaction.Output txOutput : claimedOutputs) {
             if (txOutput.value < 0) // Just in case :)
                 return false;
             inputsSum += txOutput.value;
@@ -110,66 +150,200 @@ public class TxHandler {
         return (inputsSum >= outputsSum);
     }
 
-    /**
-     * Returns a UTXO for a given transaction input if it exists.
-     */
-    private UTXO getUtxoIfAny (Transaction.Input txInput) {
-        ByteArrayWrapper prevTxHash = new ByteArrayWrapper(txInput.prevTxHash);
-        for (UTXO utxo : utxoPool.getAllUTXO()) {
-            ByteArrayWrapper utxoTxHash = new ByteArrayWrapper(utxo.getTxHash());
-            if (prevTxHash.equals(utxoTxHash) && txInput.outputIndex == utxo.getIndex())
-                return utxo;
-        }
-        return null;
-    }
-
     /**
      * Handles each epoch by receiving an unordered array of proposed transactions, checking each
      * transaction for correctness, returning a mutually valid array of accepted transactions, and
      * updating the current UTXO pool as appropriate.
      *
-     * The algorithm is as follows:
-     *      1) We iterate over all possibleTxs, and we check if the Tx is valid for each one.
-     *      2) If it's not we continue in the rest of Txs.
-     *      3) If it's valid we do the following:
-     *          i) We add it in the accepted transaction list.
-     *          ii) We remove all the Tx inputs from the UTXO pool (To avoid double spending across Txs).
-     *          iii) We add all new Tx outputs in the UTXO pool since they would be unspent
-     *          iv) We set this Tx to null in the possibleTxs (increases performance).
-     *          v) We Iterate over the whole array from the beginning.
+     * The transactions are accepted in topological order using the parent/child graph built from
+     * their input outpoints. The algorithm is as follows:
+     *      1) We map every proposed Tx hash to the proposed Tx and to the indices of the proposed Txs
+     *         spending its outputs (children).
+     *      2) We resolve the output claimed by every input either from the current UTXO pool or from
+     *         the outputs of the proposed Txs.
+     *      3) We verify all the signatures of the proposed Txs in parallel using the signature verifier.
+     *      4) We validate every Tx once against the current UTXO pool:
+     *          i) If all of its claimed outputs exist and it is valid, it is pushed in the ready-queue.
+     *          ii) If some claimed output is missing, it waits until one of its parents is accepted.
+     *          iii) Otherwise (bad signature or values) it is rejected for good.
+     *      5) We repeatedly poll the Tx with the smallest index from the ready-queue:
+     *          i) If one of its claimed outputs was spent meanwhile by a conflicting Tx, it is rejected.
+     *          ii) Otherwise we add it in the accepted transaction list, remove all its inputs from the
+     *              UTXO pool (To avoid double spending across Txs) and add all its outputs to the UTXO pool.
+     *          iii) We re-examine only the waiting children of the accepted Tx as in (4).
+     *
+     *  Polling the smallest index gives exactly the same result as rescanning the array from the
+     *  beginning after every accepted Tx, so conflicting double-spends are resolved in favour of the
+     *  earliest Tx that is valid at that point.
      *
      *  Complexity:
-     *  Time complexity = O(n^2) such that n is the number of elements in possibleTxs.
-     *  The worst case scenario would happen if all Txs depend on each other, and they are sorted such that
-     *  the first valid Tx is the last element and the second valid is the second last element and so on...
+     *  Time complexity = O((n + e) log n) such that n is the number of elements in possibleTxs and e is
+     *  the total number of inputs. Signatures of a Tx are verified at most once.
      *
-     *  Space complexity = O(1), the algorithm runs in-place.
+     *  Space complexity = O(n + e) for the graph, the ready-queue and the claimed UTXOs.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
-        List<Transaction> acceptedTransactions = new ArrayList<>();
-        for (int i = 0 ; i < possibleTxs.length ; i++) {
+        return acceptTxs(possibleTxs, false).toArray(new Transaction[0]);
+    }
+
+    /**
+     * Handles the transactions of a block, which is valid only if all of its transactions are
+     * accepted. It works as {@link #handleTxs(Transaction[])} except that the first unresolvable
+     * input or invalid signature aborts the whole batch. The transactions may be views over an
+     * encoded block, which are validated in place.
+     *
+     * @return true if all {@code txs} are accepted. Otherwise, the UTXO pool of this handler is left
+     *         partially updated and should be discarded.
+     */
+    public boolean handleAllTxs(TransactionAccessor[] txs) {
+        List<TransactionAccessor> acceptedTransactions = acceptTxs(txs, true);
+        return acceptedTransactions != null && acceptedTransactions.size() == txs.length;
+    }
+
+    ///
+    /// Helper methods and fields for handleTxs()
+    ///
+
+    /** States of a proposed transaction while handling an epoch */
+    private static final byte WAITING = 0, READY = 1, ACCEPTED = 2, REJECTED = 3;
+
+    /**
+     * Runs the acceptance algorithm described in {@link #handleTxs(Transaction[])} and returns the
+     * accepted transactions, or null if {@code failFast} is set and some transaction can't be accepted.
+     */
+    private <T extends TransactionAccessor> List<T> acceptTxs(T[] possibleTxs, boolean failFast) {
+        List<T> acceptedTransactions = new ArrayList<>();
+        int n = possibleTxs.length;
+
+        // satisfies (1)
+        HashMap<ByteArrayWrapper, TransactionAccessor> proposedTxMap = new HashMap<>();
+        HashMap<ByteArrayWrapper, List<Integer>> childrenMap = new HashMap<>();
+        for (int i = 0 ; i < n ; i++) {
             if (possibleTxs[i] == null)
                 continue;
-            Transaction possibleTx = possibleTxs[i];
-            if (isValidTx(possibleTx)) {
-                acceptedTransactions.add(possibleTx);
-                // Removing all transaction inputs from UTXO pool
-                for (Transaction.Input txInput : possibleTx.getInputs()) {
-                    UTXO utxo = getUtxoIfAny(txInput);
-                    if (utxo == null)
-                        throw new RuntimeException("Failed to get UTXO when trying to remove it from " +
-                                                    "UTXO pool when handling txs");
-                    utxoPool.removeUTXO(utxo);
-                }
-                // Adding all transaction output (new transactions) in UTXO pool
-                int txOutputSize = possibleTx.getOutputs().size();
-                for (int txOutputIndex = 0 ; txOutputIndex < txOutputSize ; txOutputIndex++){
-                    utxoPool.addUTXO(new UTXO(possibleTx.getHash(), txOutputIndex), possibleTx.getOutput(txOutputIndex));
-                }
-                possibleTxs[i] = null;
-                i = -1;
+            proposedTxMap.put(new ByteArrayWrapper(possibleTxs[i].getHash()), possibleTxs[i]);
+            for (int index = 0 ; index < possibleTxs[i].numInputs() ; index++) {
+                UTXO utxo = possibleTxs[i].getClaimedUtxo(index);
+                if (utxo == null)
+                    continue;
+                childrenMap.computeIfAbsent(new ByteArrayWrapper(utxo.getTxHash()), k -> new ArrayList<>()).add(i);
             }
         }
-        return acceptedTransactions.toArray(new Transaction[0]);
+
+        // satisfies (2)
+        Transaction.Output[][] resolvedOutputs = new Transaction.Output[n][];
+        for (int i = 0 ; i < n ; i++) {
+            if (possibleTxs[i] != null)
+                resolvedOutputs[i] = resolveClaimedOutputs(possibleTxs[i], proposedTxMap);
+            if (failFast && resolvedOutputs[i] == null)
+                return null;
+        }
+
+        // satisfies (3)
+        boolean[] signaturesValid = signatureVerifier.verifyTxs(possibleTxs, resolvedOutputs, failFast);
+        if (signaturesValid == null)
+            return null;
+
+        // satisfies (4)
+        byte[] states = new byte[n];
+        UTXO[][] claimedUtxos = new UTXO[n][];
+        PriorityQueue<Integer> readyQueue = new PriorityQueue<>();
+        for (int i = 0 ; i < n ; i++) {
+            if (possibleTxs[i] == null || ! signaturesValid[i])
+                states[i] = REJECTED;
+            else
+                examineTx(possibleTxs, i, states, claimedUtxos, readyQueue);
+        }
+
+        // satisfies (5)
+        while (! readyQueue.isEmpty()) {
+            int i = readyQueue.poll();
+            if (! allInUTXO(claimedUtxos[i])) {
+                states[i] = REJECTED;
+                continue;
+            }
+            T acceptedTx = possibleTxs[i];
+            byte[] acceptedTxHash = acceptedTx.getHash();
+            acceptedTransactions.add(acceptedTx);
+            states[i] = ACCEPTED;
+            // Removing all transaction inputs from UTXO pool
+            for (UTXO utxo : claimedUtxos[i])
+                utxoPool.removeUTXO(utxo);
+            claimedUtxos[i] = null;
+            // Adding all transaction output (new transactions) in UTXO pool
+            int txOutputSize = acceptedTx.numOutputs();
+            for (int txOutputIndex = 0 ; txOutputIndex < txOutputSize ; txOutputIndex++){
+                utxoPool.addUTXO(new UTXO(acceptedTxHash, txOutputIndex), acceptedTx.getOutput(txOutputIndex));
+            }
+            // Re-examining the waiting children only
+            List<Integer> children = childrenMap.get(new ByteArrayWrapper(acceptedTxHash));
+            if (children != null)
+                for (int child : children)
+                    if (states[child] == WAITING)
+                        examineTx(possibleTxs, child, states, claimedUtxos, readyQueue);
+        }
+        return acceptedTransactions;
+    }
+
+    /**
+     * Returns the outputs claimed by the inputs of {@code tx} looked up in the current UTXO pool or
+     * else in the outputs of the proposed transactions, or null if some claimed output can't be found.
+     */
+    private Transaction.Output[] resolveClaimedOutputs(TransactionAccessor tx,
+                                                       HashMap<ByteArrayWrapper, TransactionAccessor> proposedTxMap) {
+        Transaction.Output[] claimedOutputs = new Transaction.Output[tx.numInputs()];
+        for (int index = 0 ; index < claimedOutputs.length ; index++) {
+            UTXO utxo = tx.getClaimedUtxo(index);
+            if (utxo == null)
+                return null;
+            Transaction.Output txOutput = utxoPool.getTxOutput(utxo);
+            if (txOutput == null) {
+                TransactionAccessor parentTx = proposedTxMap.get(new ByteArrayWrapper(utxo.getTxHash()));
+                if (parentTx == null || utxo.getIndex() < 0)
+                    return null;
+                txOutput = parentTx.getOutput(utxo.getIndex());
+                if (txOutput == null)
+                    return null;
+            }
+            claimedOutputs[index] = txOutput;
+        }
+        return claimedOutputs;
+    }
+
+    /**
+     * Validates the proposed transaction at {@code index}, whose signatures are already verified,
+     * against the current UTXO pool and updates its state: pushes it in the ready-queue if valid,
+     * keeps it waiting if some claimed output doesn't exist yet and rejects it otherwise.
+     */
+    private void examineTx(TransactionAccessor[] possibleTxs, int index, byte[] states, UTXO[][] claimedUtxos,
+                           PriorityQueue<Integer> readyQueue) {
+        TransactionAccessor tx = possibleTxs[index];
+        if (isEmptyTx(tx)) {
+            states[index] = REJECTED;
+            return;
+        }
+        UTXO[] txClaimedUtxos = new UTXO[tx.numInputs()];
+        Transaction.Output[] txClaimedOutputs = new Transaction.Output[tx.numInputs()];
+        if (! existsInUTXO(tx, txClaimedUtxos, txClaimedOutputs)) {
+            states[index] = WAITING;
+            return;
+        }
+        if (! ensureTxValues(tx, txClaimedOutputs)) {
+            states[index] = REJECTED;
+            return;
+        }
+        claimedUtxos[index] = txClaimedUtxos;
+        states[index] = READY;
+        readyQueue.add(index);
+    }
+
+    /**
+     * Returns true if all the given UTXOs are still unspent in the current UTXO pool.
+     */
+    private boolean allInUTXO(UTXO[] utxos) {
+        for (UTXO utxo : utxos)
+            if (! utxoPool.contains(utxo))
+                return false;
+        return true;
     }
 }
@@ -1,32 +1,106 @@
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.function.BiConsumer;
 
 public class UTXOPool {
 
     /**
-     * The current collection of UTXOs, with each one mapped to its corresponding transaction output
+     * The current collection of UTXOs, with each one mapped to its corresponding transaction output.
+     * The map is persistent: pools copied from one another share all the entries none of them has
+     * modified, so a copy is O(1) and each update only allocates O(log n) trie nodes.
      */
-    private HashMap<UTXO, Transaction.Output> H;
+    private PersistentHashMap<UTXO, Transaction.Output> H;
+    /** The off-heap store holding the UTXOs instead of {@code H}, or null */
+    private final OffHeapUtxoStore offHeapStore;
+    /**
+     * The snapshot holding the UTXOs under {@code H}, or null. {@code H} then only holds the changes
+     * made since the snapshot: the added UTXOs, and the removed snapshot UTXOs mapped to {@link #REMOVED}.
+     */
+    private final UtxoSnapshot snapshot;
+    /** The number of snapshot UTXOs which are keys of {@code H}, and of those mapped to {@link #REMOVED} */
+    private int shadowedCount, removedCount;
+
+    /** The transaction which the removal marker belongs to, since outputs are inner objects */
+    private static final Transaction OUTPUT_OWNER = new Transaction();
+    /** The marker of a snapshot UTXO removed from the pool */
+    private static final Transaction.Output REMOVED = OUTPUT_OWNER.new Output(0, null);
 
     /** Creates a new empty UTXOPool */
     public UTXOPool() {
-        H = new HashMap<UTXO, Transaction.Output>();
+        H = PersistentHashMap.empty();
+        offHeapStore = null;
+        snapshot = null;
     }
 
-    /** Creates a new UTXOPool that is a copy of {@code uPool} */
+    /**
+     * Creates a new UTXOPool that is a copy of {@code uPool}, in O(1) unless {@code uPool} is off
+     * the heap
+     */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        H = uPool.H;
+        offHeapStore = (uPool.offHeapStore != null) ? new OffHeapUtxoStore(uPool.offHeapStore) : null;
+        snapshot = uPool.snapshot;
+        shadowedCount = uPool.shadowedCount;
+        removedCount = uPool.removedCount;
+    }
+
+    private UTXOPool(OffHeapUtxoStore offHeapStore) {
+        this.offHeapStore = offHeapStore;
+        snapshot = null;
+    }
+
+    /**
+     * Creates a new UTXOPool holding the UTXOs of {@code snapshot}, which are only decoded when they
+     * are looked up. The pool is modified and copied like an empty pool, the snapshot staying
+     * unchanged.
+     */
+    UTXOPool(UtxoSnapshot snapshot) {
+        H = PersistentHashMap.empty();
+        offHeapStore = null;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Creates a new empty UTXOPool kept in an {@link OffHeapUtxoStore} sized for {@code expectedSize}
+     * UTXOs. It suits a large UTXO set which is rarely copied, since a copy duplicates the whole
+     * store, and requires whole base unit values.
+     */
+    public static UTXOPool createOffHeap(int expectedSize) {
+        return new UTXOPool(new OffHeapUtxoStore(expectedSize));
     }
 
     /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
     public void addUTXO(UTXO utxo, Transaction.Output txOut) {
-        H.put(utxo, txOut);
+        if (offHeapStore != null)
+            offHeapStore.put(utxo, txOut);
+        else {
+            if (snapshot != null) {
+                Transaction.Output prevTxOut = H.get(utxo);
+                if (prevTxOut == REMOVED)
+                    removedCount--;
+                else if (prevTxOut == null && snapshot.contains(utxo))
+                    shadowedCount++;
+            }
+            H = H.put(utxo, txOut);
+        }
     }
 
     /** Removes the UTXO {@code utxo} from the pool */
     public void removeUTXO(UTXO utxo) {
-        H.remove(utxo);
+        if (offHeapStore != null)
+            offHeapStore.remove(utxo);
+        else if (snapshot != null) {
+            Transaction.Output prevTxOut = H.get(utxo);
+            if (prevTxOut == REMOVED)
+                return;
+            if (snapshot.contains(utxo)) {
+                if (prevTxOut == null)
+                    shadowedCount++;
+                H = H.put(utxo, REMOVED);
+                removedCount++;
+            } else
+                H = H.remove(utxo);
+        } else
+            H = H.remove(utxo);
     }
 
     /**
@@ -34,21 +108,63 @@ public class UTXOPool {
      *         not in the pool.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
-        return H.get(ut);
+        if (offHeapStore != null)
+            return offHeapStore.get(ut);
+        Transaction.Output txOut = H.get(ut);
+        if (txOut == null && snapshot != null)
+            return snapshot.getTxOutput(ut);
+        return (txOut != REMOVED) ? txOut : null;
     }
 
     /** @return true if UTXO {@code utxo} is in the pool and false otherwise */
     public boolean contains(UTXO utxo) {
-        return H.containsKey(utxo);
+        if (offHeapStore != null)
+            return offHeapStore.contains(utxo);
+        Transaction.Output txOut = H.get(utxo);
+        if (txOut == null)
+            return snapshot != null && snapshot.contains(utxo);
+        return txOut != REMOVED;
+    }
+
+    /**
+     * Returns true if an output of {@code value} can be added to the pool, which is always the case
+     * unless the pool is off the heap and the value isn't a whole number of base units
+     */
+    public boolean canHold(double value) {
+        return offHeapStore == null || OffHeapUtxoStore.isWholeBaseUnits(value);
+    }
+
+    /** Returns the number of UTXOs in the pool */
+    public int size() {
+        if (offHeapStore != null)
+            return offHeapStore.size();
+        if (snapshot != null)
+            return snapshot.size() - shadowedCount + H.size() - removedCount;
+        return H.size();
+    }
+
+    /** Calls {@code action} on every UTXO of the pool with its transaction output */
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        if (offHeapStore != null)
+            offHeapStore.forEach(action);
+        else if (snapshot != null) {
+            PersistentHashMap<UTXO, Transaction.Output> changes = H;
+            changes.forEach((ut, txOut) -> {
+                if (txOut != REMOVED)
+                    action.accept(ut, txOut);
+            });
+            snapshot.forEach((ut, txOut) -> {
+                if (! changes.containsKey(ut))
+                    action.accept(ut, txOut);
+            });
+        } else
+            H.forEach(action);
     }
 
     /** Returns an {@code ArrayList} of all UTXOs in the pool */
     public ArrayList<UTXO> getAllUTXO() {
-        Set<UTXO> setUTXO = H.keySet();
-        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>();
-        for (UTXO ut : setUTXO) {
-            allUTXO.add(ut);
-        }
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(size());
+        forEach((ut, txOut) -> allUTXO.add(ut));
         return allUTXO;
     }
 }
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changes a block makes to the UTXO set: every UTXO it spends or creates along with its output
+ * before and after the block. Connecting or disconnecting the block replays these changes in either
+ * direction, at a cost proportional to the size of the block rather than to the size of the UTXO set.
+ */
+public class UndoRecord {
+
+    /** Estimated heap bytes per recorded UTXO: the UTXO, its transaction hash and three references */
+    private static final int ESTIMATED_ENTRY_SIZE = 112;
+
+    private final ArrayList<UTXO> utxos = new ArrayList<>();
+    /** Output of each UTXO before the block, or null if it was absent */
+    private final ArrayList<Transaction.Output> prevOutputs = new ArrayList<>();
+    /** Output of each UTXO after the block, or null if it was spent */
+    private final ArrayList<Transaction.Output> newOutputs = new ArrayList<>();
+
+    /**
+     * Records the changes {@code block} made to {@code prevUtxoPool}, the UTXO set of its previous
+     * block, to produce {@code newUtxoPool}. UTXOs created and spent within the block are unchanged
+     * and aren't recorded.
+     */
+    public UndoRecord(Block block, UTXOPool prevUtxoPool, UTXOPool newUtxoPool) {
+        this(block.getTransactions(), (block.getCoinbase() != null) ? block.getCoinbase().getHash() : null,
+             prevUtxoPool, newUtxoPool);
+    }
+
+    /**
+     * Same as {@link #UndoRecord(Block, UTXOPool, UTXOPool)} for a block made of {@code txs}, such as
+     * the transactions of a {@link BlockView}, and of the coinbase hashed {@code coinbaseHash}, or of
+     * no coinbase if it is null.
+     */
+    public UndoRecord(List<? extends TransactionAccessor> txs, byte[] coinbaseHash, UTXOPool prevUtxoPool,
+                      UTXOPool newUtxoPool) {
+        for (TransactionAccessor tx : txs) {
+            for (int i = 0; i < tx.numInputs(); i++) {
+                UTXO utxo = tx.getClaimedUtxo(i);
+                if (utxo != null)
+                    record(utxo, prevUtxoPool, newUtxoPool);
+            }
+            byte[] txHash = tx.getHash();
+            for (int i = 0; i < tx.numOutputs(); i++)
+                record(new UTXO(txHash, i), prevUtxoPool, newUtxoPool);
+        }
+        if (coinbaseHash != null)
+            record(new UTXO(coinbaseHash, 0), prevUtxoPool, newUtxoPool);
+    }
+
+    /** Returns the number of recorded UTXOs */
+    public int size() {
+        return utxos.size();
+    }
+
+    /**
+     * Returns the estimated bytes this record takes in the heap. The recorded outputs are shared
+     * with the transactions and aren't counted.
+     */
+    public long getEstimatedSize() {
+        return (long) utxos.size() * ESTIMATED_ENTRY_SIZE;
+    }
+
+    /** Applies the block to {@code utxoPool}, the UTXO set of its previous block */
+    public void connect(UTXOPool utxoPool) {
+        for (int i = 0; i < utxos.size(); i++)
+            apply(utxoPool, utxos.get(i), newOutputs.get(i));
+    }
+
+    /** Reverts the block from {@code utxoPool}, the UTXO set of the block itself */
+    public void disconnect(UTXOPool utxoPool) {
+        for (int i = 0; i < utxos.size(); i++)
+            apply(utxoPool, utxos.get(i), prevOutputs.get(i));
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    private void record(UTXO utxo, UTXOPool prevUtxoPool, UTXOPool newUtxoPool) {
+        Transaction.Output prevOutput = prevUtxoPool.getTxOutput(utxo);
+        Transaction.Output newOutput = newUtxoPool.getTxOutput(utxo);
+        // Outputs are compared by value since some pools return new instances on every lookup
+        if (prevOutput == newOutput || (prevOutput != null && prevOutput.equals(newOutput)))
+            return;
+        utxos.add(utxo);
+        prevOutputs.add(prevOutput);
+        newOutputs.add(newOutput);
+    }
+
+    private static void apply(UTXOPool utxoPool, UTXO utxo, Transaction.Output output) {
+        if (output == null)
+            utxoPool.removeUTXO(utxo);
+        else
+            utxoPool.addUTXO(utxo, output);
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A snapshot of the UTXO set of a block in a compact binary file, so a node can restart from it
+ * instead of replaying the chain from the genesis block.
+ *
+ * <pre>
+ * header  = magic version blockHash(32) height keyCount entryCount
+ * keys    = (scheme keyLength key)*            distinct address keys, X.509 encoded
+ * entries = (txHash(32) index value keyId)*    48 bytes each, sorted by outpoint
+ * trailer = CRC-32C of all the previous bytes
+ * </pre>
+ *
+ * A loaded snapshot is memory mapped and decoded lazily: single outputs are found by binary search
+ * over the fixed-size entries, which are sorted so they need no index, and the pool returned by
+ * {@link #toUtxoPool()} only decodes the outputs it looks up.
+ */
+public class UtxoSnapshot {
+
+    private static final int MAGIC = 0x5554584f;
+    private static final int VERSION = 1;
+    private static final int HASH_SIZE = 32;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + HASH_SIZE + 3 * Integer.BYTES;
+    private static final int ENTRY_SIZE = HASH_SIZE + Integer.BYTES + Double.BYTES + Integer.BYTES;
+
+    /** The transaction which the decoded outputs belong to, since outputs are inner objects */
+    private static final Transaction OUTPUT_OWNER = new Transaction();
+
+    private final byte[] blockHash;
+    private final int height;
+    private final int entryCount;
+    private final MappedByteBuffer mapping;
+    private final int entriesOffset;
+    /** The offset of each key in the mapping, and the keys decoded so far */
+    private final int[] keyOffsets;
+    private final PublicKey[] keys;
+
+    private UtxoSnapshot(byte[] blockHash, int height, int entryCount, MappedByteBuffer mapping,
+                         int entriesOffset, int[] keyOffsets) {
+        this.blockHash = blockHash;
+        this.height = height;
+        this.entryCount = entryCount;
+        this.mapping = mapping;
+        this.entriesOffset = entriesOffset;
+        this.keyOffsets = keyOffsets;
+        this.keys = new PublicKey[keyOffsets.length];
+    }
+
+    /** Returns the hash of the block whose UTXO set is snapshotted */
+    public byte[] getBlockHash() {
+        return blockHash.clone();
+    }
+
+    /** Returns the height of the block whose UTXO set is snapshotted */
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the number of UTXOs in the snapshot */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Writes the snapshot of {@code utxoPool}, the UTXO set of the block hashed {@code blockHash} at
+     * {@code height}, to {@code file}. The snapshot is written to a temporary file which atomically
+     * replaces {@code file} once it is on disk, so {@code file} always holds a complete snapshot.
+     */
+    public static void write(Path file, byte[] blockHash, int height, UTXOPool utxoPool) throws IOException {
+        if (blockHash.length != HASH_SIZE)
+            throw new IllegalArgumentException("Block hash must be " + HASH_SIZE + " bytes");
+        List<UTXO> utxos = new ArrayList<>(utxoPool.size());
+        List<Transaction.Output> outputs = new ArrayList<>(utxoPool.size());
+        utxoPool.forEach((utxo, output) -> {
+            if (utxo.getTxHash().length != HASH_SIZE)
+                throw new IllegalArgumentException("UTXO transaction hash must be " + HASH_SIZE + " bytes");
+            utxos.add(utxo);
+            outputs.add(output);
+        });
+        Integer[] order = new Integer[utxos.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.parallelSort(order, (i, j) -> compare(utxos.get(i), utxos.get(j)));
+
+        // Assign an id to each distinct address, compared by fingerprint
+        HashMap<Address, Integer> keyIds = new HashMap<>();
+        List<Transaction.Output> keyOutputs = new ArrayList<>();
+        List<byte[]> encodedKeys = new ArrayList<>();
+        int[] entryKeyIds = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            Transaction.Output output = outputs.get(order[i]);
+            Integer keyId = keyIds.get(output.getAddress());
+            if (keyId == null) {
+                keyId = encodedKeys.size();
+                keyIds.put(output.getAddress(), keyId);
+                encodedKeys.add(output.address.getEncoded());
+                keyOutputs.add(output);
+            }
+            entryKeyIds[i] = keyId;
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CheckedOutputStream checked = new CheckedOutputStream(Channels.newOutputStream(channel), crc);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(blockHash);
+            out.writeInt(height);
+            out.writeInt(encodedKeys.size());
+            out.writeInt(order.length);
+            for (int i = 0; i < encodedKeys.size(); i++) {
+                out.writeByte(keyOutputs.get(i).getScheme().ordinal());
+                out.writeInt(encodedKeys.get(i).length);
+                out.write(encodedKeys.get(i));
+            }
+            for (int i = 0; i < order.length; i++) {
+                UTXO utxo = utxos.get(order[i]);
+                out.write(utxo.getTxHash());
+                out.writeInt(utxo.getIndex());
+                out.writeDouble(outputs.get(order[i]).value);
+                out.writeInt(entryKeyIds[i]);
+            }
+            out.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue());
+            trailer.flip();
+            while (trailer.hasRemaining())
+                channel.write(trailer);
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps the snapshot in {@code file} after checking its version and checksum. Only the offsets of
+     * the keys are read, the entries are decoded on demand.
+     *
+     * @throws IOException if the file is not a valid snapshot
+     */
+    public static UtxoSnapshot load(Path file) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Snapshot is too large to be mapped");
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapping.capacity() < HEADER_SIZE + Long.BYTES)
+            throw new IOException("Truncated snapshot");
+        int contentSize = mapping.capacity() - Long.BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(mapping.duplicate().limit(contentSize));
+        if (crc.getValue() != mapping.getLong(contentSize))
+            throw new IOException("Corrupted snapshot, its checksum doesn't match");
+
+        ByteBuffer buffer = mapping.duplicate();
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a UTXO snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+        byte[] blockHash = new byte[HASH_SIZE];
+        buffer.get(blockHash);
+        int height = buffer.getInt();
+        int keyCount = buffer.getInt();
+        int entryCount = buffer.getInt();
+        if (keyCount < 0 || entryCount < 0)
+            throw new IOException("Corrupted snapshot header");
+        int[] keyOffsets = new int[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keyOffsets[i] = buffer.position();
+            buffer.get();
+            int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength > buffer.remaining())
+                throw new IOException("Corrupted snapshot key");
+            buffer.position(buffer.position() + keyLength);
+        }
+        if ((long) entryCount * ENTRY_SIZE != contentSize - buffer.position())
+            throw new IOException("Corrupted snapshot entries");
+        return new UtxoSnapshot(blockHash, height, entryCount, mapping, buffer.position(), keyOffsets);
+    }
+
+    /** Returns the output of {@code utxo} found by binary search, or null if it isn't in the snapshot */
+    public Transaction.Output getTxOutput(UTXO utxo) {
+        int entry = findEntry(utxo);
+        return (entry >= 0) ? decodeOutput(entry) : null;
+    }
+
+    /** Returns true if {@code utxo} is in the snapshot, found by binary search without decoding its output */
+    public boolean contains(UTXO utxo) {
+        return findEntry(utxo) >= 0;
+    }
+
+    /** Decodes the entries one after the other and calls {@code action} on each, in outpoint order */
+    public void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        for (int i = 0; i < entryCount; i++)
+            action.accept(decodeUtxo(i), decodeOutput(i));
+    }
+
+    /**
+     * Returns a UTXO pool backed by the snapshot, so no entry is decoded upfront: each output is
+     * decoded when it is looked up, and the pool only keeps its changes since the snapshot.
+     */
+    public UTXOPool toUtxoPool() {
+        return new UTXOPool(this);
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    /** Orders the outpoints by unsigned transaction hash bytes then index */
+    private static int compare(UTXO utxo1, UTXO utxo2) {
+        int comparison = Arrays.compareUnsigned(utxo1.getTxHash(), utxo2.getTxHash());
+        return (comparison != 0) ? comparison : Integer.compare(utxo1.getIndex(), utxo2.getIndex());
+    }
+
+    /** Returns the entry of {@code utxo} found by binary search, or -1 if it isn't in the snapshot */
+    private int findEntry(UTXO utxo) {
+        if (utxo.getTxHash().length != HASH_SIZE)
+            return -1;
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareEntry(middle, utxo);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private int compareEntry(int entry, UTXO utxo) {
+        int offset = entriesOffset + entry * ENTRY_SIZE;
+        byte[] txHash = utxo.getTxHash();
+        for (int i = 0; i < HASH_SIZE; i++) {
+            int comparison = Integer.compare(mapping.get(offset + i) & 0xff, txHash[i] & 0xff);
+            if (comparison != 0)
+                return comparison;
+        }
+        return Integer.compare(mapping.getInt(offset + HASH_SIZE), utxo.getIndex());
+    }
+
+    private UTXO decodeUtxo(int entry) {
+        int offset = entriesOffset + entry * ENTRY_SIZE;
+        byte[] txHash = new byte[HASH_SIZE];
+        mapping.get(offset, txHash);
+        return new UTXO(txHash, mapping.getInt(offset + HASH_SIZE));
+    }
+
+    private Transaction.Output decodeOutput(int entry) {
+        int offset = entriesOffset + entry * ENTRY_SIZE + HASH_SIZE + Integer.BYTES;
+        double value = mapping.getDouble(offset);
+        int keyId = mapping.getInt(offset + Double.BYTES);
+        if (keyId < 0 || keyId >= keys.length)
+            throw new IllegalStateException("Corrupted snapshot entry " + entry);
+        return OUTPUT_OWNER.new Output(value, getKey(keyId));
+    }
+
+    /** Returns the key {@code keyId}, decoding it on first use */
+    private PublicKey getKey(int keyId) {
+        PublicKey key;
+        synchronized (keys) {
+            key = keys[keyId];
+        }
+        if (key != null)
+            return key;
+        int offset = keyOffsets[keyId];
+        SignatureScheme[] schemes = SignatureScheme.values();
+        int ordinal = mapping.get(offset);
+        if (ordinal < 0 || ordinal >= schemes.length)
+            throw new IllegalStateException("Corrupted snapshot key " + keyId);
+        byte[] encoded = new byte[mapping.getInt(offset + 1)];
+        mapping.get(offset + 1 + Integer.BYTES, encoded);
+        key = schemes[ordinal].decodeKey(encoded);
+        synchronized (keys) {
+            if (keys[keyId] == null)
+                keys[keyId] = key;
+            return keys[keyId];
+        }
+    }
+}
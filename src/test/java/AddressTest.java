@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+
+/**
+ * Test class for the interned addresses
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class AddressTest {
+
+    /**
+     * Equal keys are interned to the same address and key, different keys to different fingerprints.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewEd25519KeyPair();
+        PublicKey copy = SignatureScheme.RSA.decodeKey(person.getPublic().getEncoded());
+        Assertions.assertFalse(copy == person.getPublic());
+
+        Address address = Address.intern(person.getPublic());
+        Assertions.assertTrue(address == Address.intern(copy));
+        Assertions.assertEquals(32, address.getFingerprint().length);
+        Assertions.assertEquals(SignatureScheme.RSA, address.getScheme());
+        Assertions.assertArrayEquals(SignatureScheme.RSA.serializeKey(person.getPublic()), address.getRawBytes());
+        Assertions.assertFalse(address.equals(Address.intern(personA.getPublic())));
+        Address serialized = Address.intern(SignatureScheme.RSA, ByteBuffer.wrap(address.getRawBytes()),
+                                             address.getPrefixLength());
+        Assertions.assertTrue(address == serialized);
+    }
+
+    /**
+     * Outputs paying equal keys share the interned key and are equal with the same hash.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        PublicKey copy = SignatureScheme.RSA.decodeKey(person.getPublic().getEncoded());
+        Transaction tx = new Transaction();
+        tx.addOutput(10, person.getPublic());
+        tx.addOutput(10, copy);
+        tx.addOutput(15, copy);
+        tx.finalize();
+
+        Assertions.assertTrue(tx.getOutput(0).address == tx.getOutput(1).address);
+        Assertions.assertEquals(tx.getOutput(0), tx.getOutput(1));
+        Assertions.assertEquals(tx.getOutput(0).hashCode(), tx.getOutput(1).hashCode());
+        Assertions.assertFalse(tx.getOutput(1).equals(tx.getOutput(2)));
+
+        Transaction decoded = BlockCodec.decodeTransaction(ByteBuffer.wrap(BlockCodec.encodeTransaction(tx)));
+        Assertions.assertTrue(tx.getOutput(0).address == decoded.getOutput(2).address);
+        Assertions.assertArrayEquals(tx.getHash(), decoded.getHash());
+    }
+}
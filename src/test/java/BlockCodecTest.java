@@ -0,0 +1,130 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.*;
+
+/**
+ * Test class for the binary encoding of blocks and transactions and its views
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class BlockCodecTest {
+
+    /**
+     * A transaction view hashes, signs and validates in place like the decoded transaction.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewEd25519KeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        Transaction tx = new Transaction();
+        tx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        tx.addOutput(10, personA.getPublic());
+        tx.addOutput(15, person.getPublic());
+        tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        UTXOPool utxoPool = new UTXOPool();
+        utxoPool.addUTXO(new UTXO(genesisBlock.getCoinbase().getHash(), 0), genesisBlock.getCoinbase().getOutput(0));
+        TxHandler txHandler = new TxHandler(utxoPool, new SignatureVerifier(1));
+
+        byte[] encoded = BlockCodec.encodeTransaction(tx);
+        TransactionView view = TransactionView.wrap(ByteBuffer.wrap(encoded));
+        Assertions.assertArrayEquals(tx.getHash(), view.getHash());
+        Assertions.assertEquals(1, view.numInputs());
+        Assertions.assertEquals(0, view.getOutputIndex(0));
+        Assertions.assertEquals(15, view.getValue(1));
+        Assertions.assertEquals(SignatureScheme.ED25519, view.getScheme(0));
+        Assertions.assertEquals(person.getPublic(), view.getAddress(1).getKey());
+        Assertions.assertTrue(txHandler.isValidTx(view));
+        Assertions.assertArrayEquals(tx.getRawTx(), view.toTransaction().getRawTx());
+
+        byte[] signature = tx.getInput(0).signature.clone();
+        signature[0] ^= 1;
+        tx.addSignature(signature, 0);
+        tx.finalize();
+        TransactionView tamperedView = TransactionView.wrap(ByteBuffer.wrap(BlockCodec.encodeTransaction(tx)));
+        Assertions.assertArrayEquals(tx.getHash(), tamperedView.getHash());
+        Assertions.assertFalse(txHandler.isValidTx(tamperedView));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                                () -> TransactionView.wrap(ByteBuffer.wrap(encoded, 0, encoded.length - 1)));
+    }
+
+    /**
+     * A block view over a stored record has the hash of the block and decodes back to it.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewEd25519KeyPair();
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        Block block = new Block(genesisBlock.getHash(), person.getPublic());
+        for (int i = 0; i < 3; i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(genesisBlock.getHash(), i);
+            tx.addOutput(i, person.getPublic());
+            tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+            tx.finalize();
+            block.addTransaction(tx);
+        }
+        block.finalize();
+
+        for (Block b : new Block[] {genesisBlock, block}) {
+            BlockView view = BlockView.wrap(ByteBuffer.wrap(BlockCodec.encode(b)));
+            Assertions.assertArrayEquals(b.getHash(), view.getHash());
+            Assertions.assertArrayEquals(b.getCoinbase().getHash(), view.getCoinbaseHash());
+            Assertions.assertEquals(b.getTransactions().size(), view.numTransactions());
+            Assertions.assertArrayEquals(b.getRawBlock(), view.toBlock().getRawBlock());
+        }
+        BlockView view = BlockView.wrap(ByteBuffer.wrap(BlockCodec.encode(block)));
+        Assertions.assertArrayEquals(genesisBlock.getHash(), BlockCodec.toArray(view.getPrevBlockHash()));
+        Assertions.assertArrayEquals(block.getTransaction(2).getHash(), view.getTransaction(2).getHash());
+    }
+
+    /**
+     * Views are validated and added to a blockchain in place, and an output address which doesn't
+     * decode to a key invalidates its transaction or block.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewEd25519KeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        Transaction tx = new Transaction();
+        tx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        tx.addOutput(10, person.getPublic());
+        tx.addOutput(15, personA.getPublic());
+        tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        Block block = new Block(genesisBlock.getHash(), personA.getPublic());
+        block.addTransaction(tx);
+        block.finalize();
+
+        byte[] encoded = BlockCodec.encodeTransaction(tx);
+        // The X.509 encoding of the Ed25519 key of the last output ends the transaction
+        encoded[encoded.length - personA.getPublic().getEncoded().length] ^= 1;
+        TransactionView view = TransactionView.wrap(ByteBuffer.wrap(encoded));
+        Assertions.assertNotNull(view.getOutput(0));
+        Assertions.assertNull(view.getOutput(1));
+        Assertions.assertFalse(new TxHandler(blockChain.getMaxHeightUTXOPool()).isValidTx(view));
+        Assertions.assertThrows(IllegalArgumentException.class, view::toTransaction);
+
+        Block emptyBlock = new Block(genesisBlock.getHash(), personA.getPublic());
+        emptyBlock.finalize();
+        byte[] encodedBlock = BlockCodec.encode(emptyBlock);
+        // The coinbase address is only followed by the transaction count
+        encodedBlock[encodedBlock.length - 1 - personA.getPublic().getEncoded().length] ^= 1;
+        BlockView blockView = BlockView.wrap(ByteBuffer.wrap(encodedBlock));
+        Assertions.assertNull(blockView.getCoinbaseOutput());
+        Assertions.assertFalse(blockChain.addBlock(blockView));
+
+        Assertions.assertTrue(blockChain.addBlock(BlockView.wrap(ByteBuffer.wrap(BlockCodec.encode(block)))));
+        Assertions.assertEquals(2, blockChain.getMaxHeight());
+        Assertions.assertArrayEquals(block.getRawBlock(), blockChain.getMaxHeightBlock().getRawBlock());
+        Assertions.assertTrue(blockChain.getMaxHeightUTXOPool().contains(new UTXO(tx.getHash(), 1)));
+        Assertions.assertFalse(blockChain.addBlock(BlockView.wrap(ByteBuffer.wrap(BlockCodec.encode(block)))));
+    }
+}
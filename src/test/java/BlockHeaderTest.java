@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for the block headers and header-only retention of old blocks
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class BlockHeaderTest {
+
+    /**
+     * Bodies deeper than the retention depth are dropped while their headers are kept.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), 2);
+
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(genesisBlock);
+        for (int i = 0; i < 5; i++) {
+            Block block = new Block(blocks.get(i).getHash(), person.getPublic());
+            block.finalize();
+            Assertions.assertTrue(blockChain.addBlock(block));
+            blocks.add(block);
+        }
+
+        // Heights 1 to 6, bodies are kept for heights 4 to 6 only
+        for (int i = 0; i < blocks.size(); i++) {
+            BlockHeader header = blockChain.getHeader(blocks.get(i).getHash());
+            Assertions.assertNotNull(header);
+            Assertions.assertEquals(i + 1, header.getHeight());
+            Assertions.assertTrue(header.isValid());
+            if (i < 3)
+                Assertions.assertNull(blockChain.getBlock(blocks.get(i).getHash()));
+            else
+                Assertions.assertSame(blocks.get(i), blockChain.getBlock(blocks.get(i).getHash()));
+        }
+
+        BlockHeader ancestor = blockChain.getAncestorHeader(blocks.get(5).getHash(), 1);
+        Assertions.assertArrayEquals(genesisBlock.getHash(), ancestor.getHash());
+    }
+
+    /**
+     * A header chain is valid only if every header is valid and linked to the previous one.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block block1 = new Block(null, person.getPublic());
+        block1.finalize();
+        Block block2 = new Block(block1.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        block2.finalize();
+
+        List<BlockHeader> headers = new ArrayList<>();
+        headers.add(new BlockHeader(block1, 1));
+        headers.add(new BlockHeader(block2, 2));
+        Assertions.assertTrue(BlockHeader.isValidChain(headers));
+
+        headers.set(1, new BlockHeader(block2, 3));
+        Assertions.assertFalse(BlockHeader.isValidChain(headers));
+
+        headers.set(1, new BlockHeader(block2.getHash(), block2.getPrevBlockHash(), block1.getMerkleRoot(), 2));
+        Assertions.assertFalse(BlockHeader.isValidChain(headers));
+    }
+
+    /**
+     * The main chain index follows the maximum height block when a fork overtakes the main chain.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+
+        Block mainBlock = new Block(genesisBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        mainBlock.finalize();
+        Assertions.assertTrue(blockChain.addBlock(mainBlock));
+        Block forkBlock1 = new Block(genesisBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        forkBlock1.finalize();
+        Assertions.assertTrue(blockChain.addBlock(forkBlock1));
+        Assertions.assertArrayEquals(mainBlock.getHash(), blockChain.getMainChainHeader(2).getHash());
+
+        Block forkBlock2 = new Block(forkBlock1.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        forkBlock2.finalize();
+        Assertions.assertTrue(blockChain.addBlock(forkBlock2));
+        Assertions.assertEquals(3, blockChain.getMaxHeight());
+        Assertions.assertSame(forkBlock2, blockChain.getMaxHeightBlock());
+        Assertions.assertArrayEquals(genesisBlock.getHash(), blockChain.getMainChainHeader(1).getHash());
+        Assertions.assertArrayEquals(forkBlock1.getHash(), blockChain.getMainChainHeader(2).getHash());
+        Assertions.assertArrayEquals(forkBlock2.getHash(), blockChain.getMainChainHeader(3).getHash());
+        Assertions.assertNull(blockChain.getMainChainHeader(4));
+        Assertions.assertArrayEquals(mainBlock.getHash(), blockChain.getAncestorHeader(mainBlock.getHash(), 2).getHash());
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+
+/**
+ * Test class for the block store on disk
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class BlockStoreTest {
+
+    /**
+     * Stored blocks are read back from any segment, also after reopening the store.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException, IOException {
+        Path directory = Files.createTempDirectory("blockstore");
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewEd25519KeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+
+        Transaction tx = new Transaction();
+        tx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        tx.addOutput(10, personA.getPublic());
+        tx.addOutput(15, person.getPublic());
+        tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        Block block = new Block(genesisBlock.getHash(), personA.getPublic());
+        block.addTransaction(tx);
+        block.finalize();
+
+        try (BlockStore blockStore = new BlockStore(directory, 512, 1)) {
+            blockStore.append(genesisBlock);
+            blockStore.append(block);
+            blockStore.append(block);
+            blockStore.setMainChainHash(1, genesisBlock.getHash());
+            blockStore.setMainChainHash(2, block.getHash());
+            Assertions.assertEquals(2, blockStore.size());
+            Assertions.assertArrayEquals(block.getRawBlock(), blockStore.getBlock(block.getHash()).getRawBlock());
+        }
+        Assertions.assertTrue(Files.exists(directory.resolve("blk00001.dat")));
+
+        try (BlockStore blockStore = new BlockStore(directory, 512, 1)) {
+            Assertions.assertEquals(2, blockStore.getMainChainHeight());
+            Block storedBlock = blockStore.getMainChainBlock(2);
+            Assertions.assertArrayEquals(block.getHash(), storedBlock.getHash());
+            Assertions.assertEquals(1, storedBlock.getTransactions().size());
+            Assertions.assertArrayEquals(tx.getRawTx(), storedBlock.getTransaction(0).getRawTx());
+            ByteBuffer encoded = blockStore.getEncodedBlock(genesisBlock.getHash());
+            Assertions.assertTrue(encoded.isReadOnly());
+            Assertions.assertArrayEquals(genesisBlock.getHash(), BlockCodec.decode(encoded).getHash());
+        }
+    }
+
+    /**
+     * A blockchain backed by a store serves pruned bodies from disk and is restored when reopened.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, IOException {
+        Path directory = Files.createTempDirectory("blockstore");
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        PruningPolicy pruningPolicy = PruningPolicy.getDefault().withBodyRetentionDepth(1);
+
+        Block[] blocks = new Block[5];
+        blocks[0] = genesisBlock;
+        try (BlockStore blockStore = new BlockStore(directory)) {
+            BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy, blockStore);
+            for (int i = 1; i < blocks.length; i++) {
+                blocks[i] = new Block(blocks[i - 1].getHash(), TestingUtils.generateNewKeyPair().getPublic());
+                blocks[i].finalize();
+                Assertions.assertTrue(blockChain.addBlock(blocks[i]));
+            }
+            Block block = blockChain.getBlock(blocks[1].getHash());
+            Assertions.assertFalse(blocks[1] == block);
+            Assertions.assertArrayEquals(blocks[1].getHash(), block.getHash());
+        }
+
+        try (BlockStore blockStore = new BlockStore(directory)) {
+            BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy, blockStore);
+            Assertions.assertEquals(5, blockChain.getMaxHeight());
+            Assertions.assertArrayEquals(blocks[4].getHash(), blockChain.getMaxHeightBlock().getHash());
+            Assertions.assertEquals(5, blockStore.size());
+        }
+    }
+
+    /**
+     * An index entry whose record is corrupted is dropped on reopening, along with the entries and
+     * main chain hashes after it.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException, IOException {
+        Path directory = Files.createTempDirectory("blockstore");
+        Block[] blocks = new Block[3];
+        try (BlockStore blockStore = new BlockStore(directory)) {
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new Block((i == 0) ? null : blocks[i - 1].getHash(), TestingUtils.generateNewKeyPair().getPublic());
+                blocks[i].finalize();
+                blockStore.append(blocks[i]);
+                blockStore.setMainChainHash(i + 1, blocks[i].getHash());
+            }
+        }
+        Path segment = directory.resolve("blk00000.dat");
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        try (BlockStore blockStore = new BlockStore(directory)) {
+            Assertions.assertEquals(2, blockStore.size());
+            Assertions.assertFalse(blockStore.contains(blocks[2].getHash()));
+            Assertions.assertEquals(2, blockStore.getMainChainHeight());
+            Assertions.assertArrayEquals(blocks[1].getHash(), blockStore.getMainChainBlock(2).getHash());
+            blockStore.append(blocks[2]);
+            Assertions.assertArrayEquals(blocks[2].getHash(), blockStore.getBlock(blocks[2].getHash()).getHash());
+        }
+    }
+}
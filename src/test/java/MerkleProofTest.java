@@ -0,0 +1,120 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test class for the Merkle inclusion proofs of Block and BlockChain
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class MerkleProofTest {
+
+    private static final int TXS_COUNT = 6;
+
+    private static KeyPair person;
+    private static Block genesisBlock;
+    private static Transaction[] txs;
+
+    @BeforeAll
+    static void beforeAll() throws NoSuchAlgorithmException {
+        person = TestingUtils.generateNewKeyPair();
+        genesisBlock = new Block(null, person.getPublic());
+        txs = new Transaction[TXS_COUNT];
+        for (int i = 0; i < TXS_COUNT; i++) {
+            txs[i] = new Transaction();
+            txs[i].addInput(null, i);
+            txs[i].addOutput(i + 1, person.getPublic());
+            txs[i].finalize();
+            genesisBlock.addTransaction(txs[i]);
+        }
+        genesisBlock.finalize();
+    }
+
+    /**
+     * Every transaction and the coinbase have a valid proof against the block hash.
+     */
+    @Test
+    void test0() {
+        for (Transaction tx : txs) {
+            MerkleProof proof = genesisBlock.getInclusionProof(tx.getHash());
+            Assertions.assertNotNull(proof);
+            Assertions.assertTrue(proof.verify(genesisBlock.getHash()));
+            Assertions.assertArrayEquals(genesisBlock.getMerkleRoot(), proof.computeMerkleRoot());
+        }
+        MerkleProof proof = genesisBlock.getInclusionProof(genesisBlock.getCoinbase().getHash());
+        Assertions.assertTrue(proof.verify(genesisBlock.getHash()));
+    }
+
+    /**
+     * A proof doesn't verify against another block, and there is no proof for a missing transaction.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException {
+        Block otherBlock = new Block(genesisBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        otherBlock.finalize();
+        MerkleProof proof = genesisBlock.getInclusionProof(txs[0].getHash());
+        Assertions.assertFalse(proof.verify(otherBlock.getHash()));
+        Assertions.assertNull(genesisBlock.getInclusionProof(otherBlock.getCoinbase().getHash()));
+    }
+
+    /**
+     * Proofs are served by the blockchain for retained blocks only.
+     */
+    @Test
+    void test2() {
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        MerkleProof proof = blockChain.getInclusionProof(genesisBlock.getHash(), txs[3].getHash());
+        Assertions.assertNotNull(proof);
+        Assertions.assertTrue(proof.verify(genesisBlock.getHash()));
+        Assertions.assertNull(blockChain.getInclusionProof(txs[3].getHash(), txs[3].getHash()));
+    }
+
+    /**
+     * A transaction changed and finalized again after being added is committed to with its new hash.
+     */
+    @Test
+    void test3() throws NoSuchAlgorithmException {
+        Transaction tx = new Transaction();
+        tx.addInput(null, 0);
+        tx.addOutput(1, person.getPublic());
+        tx.finalize();
+        Block block = new Block(genesisBlock.getHash(), person.getPublic());
+        block.addTransaction(tx);
+        block.finalize();
+        byte[] oldHash = block.getHash();
+
+        tx.addSignature(new byte[] {1, 2, 3}, 0);
+        tx.finalize();
+        block.finalize();
+        Block expectedBlock = new Block(genesisBlock.getHash(), person.getPublic());
+        expectedBlock.addTransaction(tx);
+        expectedBlock.finalize();
+        Assertions.assertArrayEquals(expectedBlock.getHash(), block.getHash());
+        Assertions.assertFalse(Arrays.equals(oldHash, block.getHash()));
+        Assertions.assertTrue(block.getInclusionProof(tx.getHash()).verify(block.getHash()));
+    }
+
+    /**
+     * An inner node of the tree doesn't verify as a transaction hash with the rest of the branch.
+     */
+    @Test
+    void test4() {
+        List<byte[]> leaves = new ArrayList<>();
+        for (Transaction tx : txs)
+            leaves.add(tx.getHash());
+        MerkleTree tree = new MerkleTree(leaves);
+        byte[] blockHash = BlockHeader.computeHash(null, tree.getRoot());
+        List<Boolean> siblingOnLeft = new ArrayList<>();
+        List<byte[]> branch = tree.getBranch(0, siblingOnLeft);
+        Assertions.assertTrue(new MerkleProof(leaves.get(0), null, branch, siblingOnLeft).verify(blockHash));
+
+        byte[] innerNode = MerkleTree.hashPair(MerkleTree.hashLeaf(leaves.get(0)), branch.get(0));
+        MerkleProof forgedProof = new MerkleProof(innerNode, null, branch.subList(1, branch.size()),
+                                                  siblingOnLeft.subList(1, siblingOnLeft.size()));
+        Assertions.assertFalse(forgedProof.verify(blockHash));
+    }
+}
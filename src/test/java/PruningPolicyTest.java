@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+
+/**
+ * Test class for the pruning of the chain state retained by the blockchain
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class PruningPolicyTest {
+
+    private static Block addBlock(BlockChain blockChain, Block prevBlock) throws NoSuchAlgorithmException {
+        return addBlock(blockChain, prevBlock, TestingUtils.generateNewKeyPair());
+    }
+
+    /** Adds a block paying {@code miner}, whose hash only differs from its siblings' by the miner */
+    private static Block addBlock(BlockChain blockChain, Block prevBlock, KeyPair miner) {
+        Block block = new Block(prevBlock.getHash(), miner.getPublic());
+        block.finalize();
+        Assertions.assertTrue(blockChain.addBlock(block));
+        return block;
+    }
+
+    /**
+     * A side branch forking deeper than the cut-off age is evicted, leaving the block index, and
+     * can't be built on anymore.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException {
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        PruningPolicy pruningPolicy = new PruningPolicy(2, 10, PruningPolicy.UNLIMITED_HEAP_BUDGET, 100);
+        BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy);
+
+        Block mainBlock = addBlock(blockChain, genesisBlock);
+        Block forkBlock = addBlock(blockChain, genesisBlock);
+        Assertions.assertEquals(1, blockChain.getSideBranchBlockCount());
+        for (int i = 0; i < 3; i++)
+            mainBlock = addBlock(blockChain, mainBlock);
+        blockChain.awaitPruning();
+
+        Assertions.assertEquals(0, blockChain.getSideBranchBlockCount());
+        Assertions.assertNull(blockChain.getBlock(forkBlock.getHash()));
+        Assertions.assertNull(blockChain.getHeader(forkBlock.getHash()));
+        Assertions.assertEquals(5, blockChain.getIndexedBlockCount());
+        Block block = new Block(forkBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        block.finalize();
+        Assertions.assertFalse(blockChain.addBlock(block));
+    }
+
+    /**
+     * Beyond the maximum number of side blocks, the side branches with the least work are evicted.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException {
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        PruningPolicy pruningPolicy = new PruningPolicy(10, 10, PruningPolicy.UNLIMITED_HEAP_BUDGET, 2);
+        BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy);
+
+        Block mainBlock = addBlock(blockChain, genesisBlock);
+        mainBlock = addBlock(blockChain, mainBlock);
+        mainBlock = addBlock(blockChain, mainBlock);
+        Block longForkBlock = addBlock(blockChain, addBlock(blockChain, genesisBlock));
+        Block shortForkBlock = addBlock(blockChain, genesisBlock);
+        blockChain.awaitPruning();
+
+        Assertions.assertEquals(2, blockChain.getSideBranchBlockCount());
+        Assertions.assertNull(blockChain.getBlock(shortForkBlock.getHash()));
+        Assertions.assertSame(longForkBlock, blockChain.getBlock(longForkBlock.getHash()));
+        addBlock(blockChain, longForkBlock);
+    }
+
+    /**
+     * The bodies are dropped to fit in the heap budget, except the body of the maximum height block,
+     * while the blocks can still be built on.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException {
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        PruningPolicy pruningPolicy = new PruningPolicy(10, 10, 0, 100);
+        BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy);
+
+        Block[] blocks = new Block[6];
+        blocks[0] = genesisBlock;
+        for (int i = 1; i < blocks.length; i++)
+            blocks[i] = addBlock(blockChain, blocks[i - 1]);
+        blockChain.awaitPruning();
+
+        for (int i = 0; i < 5; i++)
+            Assertions.assertNull(blockChain.getBlock(blocks[i].getHash()));
+        Assertions.assertSame(blocks[5], blockChain.getMaxHeightBlock());
+        Assertions.assertTrue(blockChain.getRetainedSize() > 0);
+        addBlock(blockChain, blocks[1]);
+    }
+
+    /**
+     * The stale side blocks sent below the maximum height block along with their descendants leave
+     * the block index, whose size stays bounded by the main chain and the side blocks retained.
+     */
+    @Test
+    void test3() throws NoSuchAlgorithmException {
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        PruningPolicy pruningPolicy = new PruningPolicy(2, 10, PruningPolicy.UNLIMITED_HEAP_BUDGET, 100);
+        BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy);
+
+        KeyPair[] miners = new KeyPair[6];
+        for (int i = 0; i < miners.length; i++)
+            miners[i] = TestingUtils.generateNewKeyPair();
+        Block[] mainBlocks = new Block[41];
+        mainBlocks[1] = genesisBlock;
+        mainBlocks[2] = addBlock(blockChain, genesisBlock, miners[0]);
+        for (int height = 3; height <= 40; height++) {
+            mainBlocks[height] = addBlock(blockChain, mainBlocks[height - 1], miners[0]);
+            // Siblings of the parent of the maximum height block, some of them extended by a child
+            for (int i = 1; i < miners.length; i++) {
+                Block sibling = addBlock(blockChain, mainBlocks[height - 2], miners[i]);
+                if (i % 2 == 1)
+                    addBlock(blockChain, sibling, miners[0]);
+            }
+            blockChain.awaitPruning();
+            Assertions.assertTrue(blockChain.getIndexedBlockCount() <= height + 8);
+        }
+        Assertions.assertSame(mainBlocks[40], blockChain.getMaxHeightBlock());
+    }
+
+    /**
+     * A block can be built on a parent at the cut-off height, and on a side branch forking from the
+     * main chain at the cut-off height, but not on a side branch forking deeper even if its parent
+     * is above the cut-off height.
+     */
+    @Test
+    void test4() throws NoSuchAlgorithmException {
+        Block genesisBlock = new Block(null, TestingUtils.generateNewKeyPair().getPublic());
+        genesisBlock.finalize();
+        PruningPolicy pruningPolicy = new PruningPolicy(3, 10, PruningPolicy.UNLIMITED_HEAP_BUDGET, 100);
+        BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(), pruningPolicy);
+
+        Block[] mainBlocks = new Block[7];
+        mainBlocks[1] = genesisBlock;
+        for (int height = 2; height <= 4; height++)
+            mainBlocks[height] = addBlock(blockChain, mainBlocks[height - 1]);
+        Block deepForkBlock = addBlock(blockChain, addBlock(blockChain, mainBlocks[2]));
+        for (int height = 5; height <= 6; height++)
+            mainBlocks[height] = addBlock(blockChain, mainBlocks[height - 1]);
+        // The cut-off height is now 6 - 3 = 3
+        Block block = new Block(deepForkBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        block.finalize();
+        Assertions.assertFalse(blockChain.addBlock(block));
+        block = new Block(mainBlocks[2].getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        block.finalize();
+        Assertions.assertFalse(blockChain.addBlock(block));
+
+        Block forkBlock = addBlock(blockChain, addBlock(blockChain, mainBlocks[3]));
+        addBlock(blockChain, forkBlock);
+        Assertions.assertArrayEquals(mainBlocks[6].getHash(), blockChain.getMaxHeightBlock().getHash());
+    }
+}
@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+
+/**
+ * Test class for SignatureCache and its use by the TxHandler
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class SignatureCacheTest {
+
+    private static KeyPair personA; // Money owner (30 BTC)
+    private static KeyPair personB; // Recipient
+    private static Transaction tx0; // Initial transaction in UTXO pool
+    private static UTXOPool utxoPool;
+
+    @BeforeAll
+    static void beforeAll() throws NoSuchAlgorithmException {
+        personA = TestingUtils.generateNewKeyPair();
+        personB = TestingUtils.generateNewKeyPair();
+
+        tx0 = new Transaction();
+        tx0.addInput(null, 0);
+        tx0.addOutput(10, personA.getPublic());
+        tx0.addOutput(20, personA.getPublic());
+        tx0.finalize();
+
+        utxoPool = new UTXOPool();
+        utxoPool.addUTXO(new UTXO(tx0.getHash(), 0), tx0.getOutput(0));
+        utxoPool.addUTXO(new UTXO(tx0.getHash(), 1), tx0.getOutput(1));
+    }
+
+    private static Transaction spend(int outputIndex, double value, PrivateKey signer)
+            throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        Transaction tx = new Transaction();
+        tx.addInput(tx0.getHash(), outputIndex);
+        tx.addOutput(value, personB.getPublic());
+        tx.addSignature(TestingUtils.sign(signer, tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    /**
+     * A transaction verified once is a cache hit when it is validated again.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        SignatureVerifier verifier = new SignatureVerifier(1, new SignatureCache(10));
+        Transaction tx = spend(0, 10, personA.getPrivate());
+
+        Assertions.assertTrue(new TxHandler(utxoPool, verifier).isValidTx(tx));
+        Assertions.assertEquals(0, verifier.getSignatureCache().getHits());
+        Assertions.assertEquals(1, verifier.getSignatureCache().size());
+
+        Assertions.assertEquals(1, new TxHandler(utxoPool, verifier).handleTxs(new Transaction[]{tx}).length);
+        Assertions.assertEquals(1, verifier.getSignatureCache().getHits());
+    }
+
+    /**
+     * Failed verifications are never cached.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        SignatureVerifier verifier = new SignatureVerifier(1, new SignatureCache(10));
+        Transaction tx = spend(0, 10, personB.getPrivate());
+
+        Assertions.assertFalse(new TxHandler(utxoPool, verifier).isValidTx(tx));
+        Assertions.assertFalse(new TxHandler(utxoPool, verifier).isValidTx(tx));
+        Assertions.assertEquals(0, verifier.getSignatureCache().size());
+        Assertions.assertEquals(0, verifier.getSignatureCache().getHits());
+        Assertions.assertEquals(2, verifier.getSignatureCache().getMisses());
+    }
+
+    /**
+     * The least recently used entry is evicted once the capacity is exceeded.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        SignatureCache cache = new SignatureCache(1);
+        Transaction tx1 = spend(0, 10, personA.getPrivate());
+        Transaction tx2 = spend(1, 20, personA.getPrivate());
+
+        cache.add(tx1, 0);
+        cache.add(tx2, 0);
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertFalse(cache.contains(tx1, 0));
+        Assertions.assertTrue(cache.contains(tx2, 0));
+    }
+}
@@ -8,10 +8,15 @@ public class TestingUtils {
         return keyGen.genKeyPair();
     }
 
+    public static KeyPair generateNewEd25519KeyPair() throws NoSuchAlgorithmException {
+        return KeyPairGenerator.getInstance("Ed25519").genKeyPair();
+    }
+
     public static byte[] sign(PrivateKey privKey, byte[] message)
             throws NoSuchAlgorithmException, SignatureException,
             InvalidKeyException {
-        Signature signature = Signature.getInstance("SHA256withRSA");
+        String algorithm = privKey.getAlgorithm().equals("RSA") ? "SHA256withRSA" : "Ed25519";
+        Signature signature = Signature.getInstance(algorithm);
         signature.initSign(privKey);
         signature.update(message);
         return signature.sign();
@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.*;
+import java.util.List;
+
+/**
+ * Test class for the write-ahead log of the transaction pool
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class TransactionPoolLogTest {
+
+    /**
+     * The logged changes are replayed in order after reopening, across a compaction and a torn record.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, IOException {
+        Path directory = Files.createTempDirectory("mempool");
+        Transaction[] txs = new Transaction[4];
+        for (int i = 0; i < txs.length; i++) {
+            txs[i] = new Transaction();
+            txs[i].addInput(new byte[32], i);
+            txs[i].addOutput(i + 1, TestingUtils.generateNewKeyPair().getPublic());
+            txs[i].finalize();
+        }
+
+        try (TransactionPoolLog log = new TransactionPoolLog(directory, 2)) {
+            Assertions.assertTrue(log.getRecoveredTransactions().isEmpty());
+            log.logAddition(txs[0]);
+            log.logAddition(txs[1]);
+            log.logAddition(txs[2]);
+            log.sync();
+            log.logRemoval(txs[1].getHash());
+            log.logAddition(txs[3]);
+        }
+        Assertions.assertTrue(Files.exists(directory.resolve("mempool.dat")));
+        Files.write(directory.resolve("mempool.log"), new byte[] {1, 0, 0}, StandardOpenOption.APPEND);
+
+        try (TransactionPoolLog log = new TransactionPoolLog(directory, 2)) {
+            List<Transaction> recoveredTxs = log.getRecoveredTransactions();
+            Assertions.assertEquals(3, recoveredTxs.size());
+            Assertions.assertArrayEquals(txs[0].getRawTx(), recoveredTxs.get(0).getRawTx());
+            Assertions.assertArrayEquals(txs[2].getHash(), recoveredTxs.get(1).getHash());
+            Assertions.assertArrayEquals(txs[3].getHash(), recoveredTxs.get(2).getHash());
+        }
+    }
+
+    /**
+     * A restored transaction pool only keeps the recovered transactions which are still valid.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException, IOException {
+        Path directory = Files.createTempDirectory("mempool");
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+
+        Transaction validTx = new Transaction();
+        validTx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        validTx.addOutput(25, person.getPublic());
+        validTx.addSignature(TestingUtils.sign(person.getPrivate(), validTx.getRawDataToSign(0)), 0);
+        validTx.finalize();
+        Transaction invalidTx = new Transaction();
+        invalidTx.addInput(new byte[32], 0);
+        invalidTx.addOutput(5, person.getPublic());
+        invalidTx.addSignature(TestingUtils.sign(person.getPrivate(), invalidTx.getRawDataToSign(0)), 0);
+        invalidTx.finalize();
+
+        try (TransactionPoolLog log = new TransactionPoolLog(directory)) {
+            BlockChain blockChain = new BlockChain(genesisBlock);
+            blockChain.restoreTransactionPool(log);
+            BlockHandler blockHandler = new BlockHandler(blockChain);
+            Assertions.assertFalse(blockHandler.processTx(invalidTx));
+            Assertions.assertTrue(blockHandler.processTx(validTx));
+            // Stands for a transaction which was valid when it was logged
+            log.logAddition(invalidTx);
+        }
+
+        try (TransactionPoolLog log = new TransactionPoolLog(directory)) {
+            Assertions.assertEquals(2, log.getRecoveredTransactions().size());
+            BlockChain blockChain = new BlockChain(genesisBlock);
+            blockChain.restoreTransactionPool(log);
+            Assertions.assertEquals(1, blockChain.getTransactionPool().getTransactions().size());
+            Assertions.assertNotNull(blockChain.getTransactionPool().getTransaction(validTx.getHash()));
+
+            Block block = new BlockHandler(blockChain).createBlock(TestingUtils.generateNewKeyPair().getPublic());
+            Assertions.assertEquals(1, block.getTransactions().size());
+            Assertions.assertTrue(blockChain.getTransactionPool().getTransactions().isEmpty());
+        }
+
+        try (TransactionPoolLog log = new TransactionPoolLog(directory)) {
+            Assertions.assertTrue(log.getRecoveredTransactions().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test class for the fee-rate index of the transaction pool and the block templates built from it
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class TransactionPoolTest {
+
+    /**
+     * The pool iterates over its transactions from the highest fee rate down, ties in order of arrival.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Transaction[] txs = new Transaction[4];
+        for (int i = 0; i < txs.length; i++)
+            txs[i] = spend(person, new byte[32], i, 1, person.getPublic());
+
+        TransactionPool pool = new TransactionPool();
+        pool.addTransaction(txs[0], 0.1);
+        pool.addTransaction(txs[1], 2);
+        pool.addTransaction(txs[2], 0.1);
+        pool.addTransaction(txs[3], 1);
+        pool.addTransaction(txs[3], 5);
+        Assertions.assertEquals(4, pool.size());
+        Assertions.assertEquals(1.0 / txs[3].getRawTx().length, pool.getFeeRate(txs[3].getHash()));
+        assertOrder(pool.getTransactionsByFeeRate(), txs[1], txs[3], txs[0], txs[2]);
+
+        TransactionPool copy = new TransactionPool(pool);
+        pool.removeTransaction(txs[3].getHash());
+        Assertions.assertTrue(Double.isNaN(pool.getFeeRate(txs[3].getHash())));
+        assertOrder(pool.getTransactionsByFeeRate(), txs[1], txs[0], txs[2]);
+        assertOrder(copy.getTransactionsByFeeRate(), txs[1], txs[3], txs[0], txs[2]);
+    }
+
+    /**
+     * A block template takes the transactions with the highest fee rates which fit in the size
+     * limit, a transaction claiming the output of another pool transaction coming after it.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        BlockHandler blockHandler = new BlockHandler(blockChain);
+
+        Transaction split = new Transaction();
+        split.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        for (int i = 0; i < 5; i++)
+            split.addOutput(5, person.getPublic());
+        split.addSignature(TestingUtils.sign(person.getPrivate(), split.getRawDataToSign(0)), 0);
+        split.finalize();
+        blockHandler.processTx(split);
+        Assertions.assertNotNull(blockHandler.createBlock(person.getPublic()));
+
+        Transaction lowFeeTx = spend(person, split.getHash(), 0, 4.9, person.getPublic());
+        Transaction highFeeTx = spend(person, split.getHash(), 1, 4, person.getPublic());
+        Transaction midFeeTx = spend(person, split.getHash(), 2, 4.5, person.getPublic());
+        Transaction childTx = spend(person, lowFeeTx.getHash(), 0, 2.9, person.getPublic());
+        for (Transaction tx : new Transaction[] {lowFeeTx, highFeeTx, midFeeTx, childTx})
+            blockHandler.processTx(tx);
+
+        int emptySize = new Block(blockChain.getMaxHeightBlock().getHash(), person.getPublic()).getSize();
+        int sizeLimit = emptySize + highFeeTx.getRawTx().length + midFeeTx.getRawTx().length;
+        Block block = new BlockHandler(blockChain, sizeLimit).createBlock(person.getPublic());
+        Assertions.assertNotNull(block);
+        Assertions.assertTrue(block.getSize() <= sizeLimit);
+        assertOrder(block.getTransactions().iterator(), highFeeTx, midFeeTx);
+
+        block = blockHandler.createBlock(person.getPublic());
+        Assertions.assertNotNull(block);
+        assertOrder(block.getTransactions().iterator(), lowFeeTx, childTx);
+        Assertions.assertEquals(0, blockChain.getTransactionPool().size());
+    }
+
+    /**
+     * Only valid transactions spending no output spent by the pool are admitted, and a connected
+     * block evicts the pool transactions conflicting with it along with their descendants.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair other = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        BlockHandler blockHandler = new BlockHandler(blockChain);
+        byte[] coinbaseHash = genesisBlock.getCoinbase().getHash();
+
+        Transaction parentTx = spend(person, coinbaseHash, 0, 24, person.getPublic());
+        Transaction childTx = spend(person, parentTx.getHash(), 0, 23, other.getPublic());
+        Transaction doubleSpendTx = spend(person, coinbaseHash, 0, 20, other.getPublic());
+        Assertions.assertFalse(blockHandler.processTx(childTx));
+        Assertions.assertTrue(blockHandler.processTx(parentTx));
+        Assertions.assertFalse(blockHandler.processTx(parentTx));
+        Assertions.assertTrue(blockHandler.processTx(childTx));
+        Assertions.assertFalse(blockHandler.processTx(doubleSpendTx));
+        Assertions.assertFalse(blockHandler.processTx(spend(other, coinbaseHash, 1, 1, other.getPublic())));
+        Assertions.assertFalse(blockHandler.processTx(spend(other, parentTx.getHash(), 0, 1, other.getPublic())));
+        Assertions.assertEquals(2, blockChain.getTransactionPool().size());
+        Assertions.assertSame(childTx, blockChain.getTransactionPool().getSpender(new UTXO(parentTx.getHash(), 0)));
+
+        Block block = new Block(genesisBlock.getHash(), other.getPublic());
+        block.addTransaction(doubleSpendTx);
+        block.finalize();
+        Assertions.assertTrue(blockHandler.processBlock(block));
+        Assertions.assertEquals(0, blockChain.getTransactionPool().size());
+        Assertions.assertNull(blockChain.getTransactionPool().getSpender(new UTXO(coinbaseHash, 0)));
+    }
+
+    /**
+     * Once the pool exceeds its budget, the transactions with the lowest fee rate are evicted along
+     * with their descendants and the minimum fee rate rises above theirs.
+     */
+    @Test
+    void test3() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Transaction[] txs = new Transaction[4];
+        for (int i = 0; i < txs.length; i++)
+            txs[i] = spend(person, new byte[32], i, 1, person.getPublic());
+        Transaction childTx = spend(person, txs[0].getHash(), 0, 1, person.getPublic());
+        int txSize = txs[0].getRawTx().length;
+        Assertions.assertEquals(txSize, childTx.getRawTx().length);
+
+        TransactionPool pool = new TransactionPool();
+        pool.setMaxSize(3 * txSize);
+        Assertions.assertTrue(pool.addTransaction(txs[0], 0.1));
+        Assertions.assertTrue(pool.addTransaction(childTx, 5));
+        Assertions.assertTrue(pool.addTransaction(txs[1], 1));
+        Assertions.assertEquals(0, pool.getMinFeeRate());
+        Assertions.assertTrue(pool.addTransaction(txs[2], 2));
+        Assertions.assertEquals(2 * txSize, pool.getSize());
+        assertOrder(pool.getTransactionsByFeeRate(), txs[2], txs[1]);
+        double evictedFeeRate = 0.1 / txSize;
+        Assertions.assertTrue(pool.getMinFeeRate() > evictedFeeRate);
+        Assertions.assertTrue(pool.getMinFeeRate() <= evictedFeeRate + TransactionPool.INCREMENTAL_FEE_RATE);
+
+        pool.setMaxSize(2 * txSize);
+        Assertions.assertFalse(pool.addTransaction(txs[3], 0.5));
+        assertOrder(pool.getTransactionsByFeeRate(), txs[2], txs[1]);
+        Assertions.assertTrue(pool.getMinFeeRate() > 0.5 / txSize);
+        pool.setMaxSize(txSize);
+        assertOrder(pool.getTransactionsByFeeRate(), txs[2]);
+        Assertions.assertEquals(txSize, pool.getSize());
+    }
+
+    /**
+     * When another fork becomes the main chain, the transactions of the disconnected blocks go back
+     * to the pool unless they conflict with the new branch, in which case the pool transactions
+     * depending on them are evicted, as are the ones spending a disconnected coinbase.
+     */
+    @Test
+    void test4() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair other = TestingUtils.generateNewKeyPair();
+        KeyPair miner = TestingUtils.generateNewKeyPair();
+        Transaction fundTx = new Transaction();
+        fundTx.addInput(new byte[32], 0);
+        fundTx.addOutput(10, person.getPublic());
+        fundTx.addOutput(10, person.getPublic());
+        fundTx.finalize();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.addTransaction(fundTx);
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        BlockHandler blockHandler = new BlockHandler(blockChain);
+        TransactionPool pool = blockChain.getTransactionPool();
+
+        Transaction conflictedTx = spend(person, fundTx.getHash(), 0, 9, person.getPublic());
+        Transaction survivingTx = spend(person, fundTx.getHash(), 1, 9, other.getPublic());
+        Assertions.assertTrue(blockHandler.processTx(conflictedTx));
+        Assertions.assertTrue(blockHandler.processTx(survivingTx));
+        Block mainBlock = blockHandler.createBlock(miner.getPublic());
+        Assertions.assertNotNull(mainBlock);
+        Assertions.assertEquals(2, mainBlock.getTransactions().size());
+        Transaction childTx = spend(person, conflictedTx.getHash(), 0, 8, person.getPublic());
+        Transaction coinbaseSpendTx = spend(miner, mainBlock.getCoinbase().getHash(), 0, 24, miner.getPublic());
+        Assertions.assertTrue(blockHandler.processTx(childTx));
+        Assertions.assertTrue(blockHandler.processTx(coinbaseSpendTx));
+
+        Block forkBlock = new Block(genesisBlock.getHash(), other.getPublic());
+        forkBlock.addTransaction(spend(person, fundTx.getHash(), 0, 5, other.getPublic()));
+        forkBlock.finalize();
+        Assertions.assertTrue(blockHandler.processBlock(forkBlock));
+        Assertions.assertEquals(2, pool.size());
+
+        Block forkTip = new Block(forkBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        forkTip.finalize();
+        Assertions.assertTrue(blockHandler.processBlock(forkTip));
+        Assertions.assertArrayEquals(forkTip.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertOrder(pool.getTransactionsByFeeRate(), survivingTx);
+        Assertions.assertNull(pool.getSpender(new UTXO(conflictedTx.getHash(), 0)));
+        Assertions.assertNull(pool.getSpender(new UTXO(mainBlock.getCoinbase().getHash(), 0)));
+    }
+
+    /**
+     * The transactions of a disconnected block listing a child before its parent both go back to the
+     * pool, even if the parent pays less than the minimum fee rate of the pool.
+     */
+    @Test
+    void test5() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair miner = TestingUtils.generateNewKeyPair();
+        Transaction fundTx = new Transaction();
+        fundTx.addInput(new byte[32], 0);
+        fundTx.addOutput(10, person.getPublic());
+        fundTx.addOutput(10, person.getPublic());
+        fundTx.finalize();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.addTransaction(fundTx);
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        BlockHandler blockHandler = new BlockHandler(blockChain);
+        TransactionPool pool = blockChain.getTransactionPool();
+
+        Transaction parentTx = spend(person, fundTx.getHash(), 0, 10, person.getPublic());
+        Transaction childTx = spend(person, parentTx.getHash(), 0, 9, person.getPublic());
+        Block mainBlock = new Block(genesisBlock.getHash(), miner.getPublic());
+        mainBlock.addTransaction(childTx);
+        mainBlock.addTransaction(parentTx);
+        mainBlock.finalize();
+        Assertions.assertTrue(blockHandler.processBlock(mainBlock));
+
+        // Evicting a transaction raises the minimum fee rate above the fee rate of parentTx
+        Assertions.assertTrue(blockHandler.processTx(spend(person, fundTx.getHash(), 1, 9, person.getPublic())));
+        pool.setMaxSize(0);
+        pool.setMaxSize(TransactionPool.DEFAULT_MAX_SIZE);
+        Assertions.assertEquals(0, pool.size());
+        Assertions.assertTrue(pool.getMinFeeRate() > 0);
+
+        Block forkBlock = new Block(genesisBlock.getHash(), miner.getPublic());
+        forkBlock.finalize();
+        Assertions.assertTrue(blockHandler.processBlock(forkBlock));
+        Block forkTip = new Block(forkBlock.getHash(), miner.getPublic());
+        forkTip.finalize();
+        Assertions.assertTrue(blockHandler.processBlock(forkTip));
+        Assertions.assertArrayEquals(forkTip.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertOrder(pool.getTransactionsByFeeRate(), childTx, parentTx);
+        Assertions.assertSame(childTx, pool.getSpender(new UTXO(parentTx.getHash(), 0)));
+    }
+
+    ///
+    /// Helper methods
+    ///
+
+    private static Transaction spend(KeyPair owner, byte[] prevTxHash, int outputIndex, double value,
+                                     PublicKey recipient)
+            throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        Transaction tx = new Transaction();
+        tx.addInput(prevTxHash, outputIndex);
+        tx.addOutput(value, recipient);
+        tx.addSignature(TestingUtils.sign(owner.getPrivate(), tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    private static void assertOrder(Iterator<Transaction> actual, Transaction... expected) {
+        List<ByteArrayWrapper> actualHashes = new ArrayList<>();
+        actual.forEachRemaining(tx -> actualHashes.add(new ByteArrayWrapper(tx.getHash())));
+        List<ByteArrayWrapper> expectedHashes = new ArrayList<>();
+        for (Transaction tx : expected)
+            expectedHashes.add(new ByteArrayWrapper(tx.getHash()));
+        Assertions.assertEquals(expectedHashes, actualHashes);
+    }
+}
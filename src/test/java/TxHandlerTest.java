@@ -3,6 +3,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.security.*;
+import java.util.Arrays;
 
 /**
  * Test class for txHandler.isValidTx
@@ -242,4 +243,56 @@ class TxHandlerTest {
 
         Assertions.assertFalse(txHandler.isValidTx(newTx));
     }
-}
\ No newline at end of file
+
+    /**
+     * Valid test for a transaction mixing RSA and Ed25519 addresses.
+     */
+    @Test
+    void test12() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair personE = TestingUtils.generateNewEd25519KeyPair();
+
+        Transaction edTx = new Transaction();
+        edTx.addInput(tx3.getHash(), 0);
+        edTx.addOutput(50, personE.getPublic());
+        edTx.addSignature(TestingUtils.sign(personC.getPrivate(), edTx.getRawDataToSign(0)), 0);
+        edTx.finalize();
+        Assertions.assertTrue(txHandler.isValidTx(edTx));
+
+        UTXOPool utxoPool = new UTXOPool();
+        utxoPool.addUTXO(new UTXO(tx1.getHash(), 0), tx1.getOutput(0));
+        utxoPool.addUTXO(new UTXO(edTx.getHash(), 0), edTx.getOutput(0));
+
+        Transaction newTx = new Transaction();
+        newTx.addInput(tx1.getHash(), 0);
+        newTx.addInput(edTx.getHash(), 0);
+        newTx.addOutput(60, personB.getPublic());
+        newTx.addSignature(TestingUtils.sign(personA.getPrivate(), newTx.getRawDataToSign(0)), 0);
+        newTx.addSignature(TestingUtils.sign(personE.getPrivate(), newTx.getRawDataToSign(1)), 1);
+        newTx.finalize();
+        Assertions.assertTrue(new TxHandler(utxoPool).isValidTx(newTx));
+
+        // Swapping the signers must fail under both schemes
+        newTx.addSignature(TestingUtils.sign(personA.getPrivate(), newTx.getRawDataToSign(1)), 1);
+        newTx.finalize();
+        Assertions.assertFalse(new TxHandler(utxoPool).isValidTx(newTx));
+    }
+
+    /**
+     * Valid test for a transaction whose output is assigned after signing data is read but before
+     * signing, as the signed data reflects the output
+     */
+    @Test
+    void test13() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        Transaction newTx = new Transaction();
+        newTx.addInput(tx1.getHash(), 0);
+        newTx.addOutput(10, personC.getPublic());
+        byte[] staleData = newTx.getRawDataToSign(0);
+        newTx.getOutput(0).value = 5;
+        newTx.getOutput(0).address = personB.getPublic();
+        Assertions.assertFalse(Arrays.equals(staleData, newTx.getRawDataToSign(0)));
+        newTx.addSignature(TestingUtils.sign(personA.getPrivate(), newTx.getRawDataToSign(0)), 0);
+        newTx.finalize();
+
+        Assertions.assertTrue(txHandler.isValidTx(newTx));
+    }
+}
@@ -0,0 +1,179 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Test class for the persistent and off-heap UTXO pools
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class UTXOPoolTest {
+
+    /**
+     * A copy and its source are independent once either of them is modified.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Transaction tx = new Transaction(25, person.getPublic());
+        UTXO utxo0 = new UTXO(tx.getHash(), 0);
+        UTXO utxo1 = new UTXO(tx.getHash(), 1);
+
+        UTXOPool pool = new UTXOPool();
+        pool.addUTXO(utxo0, tx.getOutput(0));
+        UTXOPool copy = new UTXOPool(pool);
+        copy.removeUTXO(utxo0);
+        copy.addUTXO(utxo1, tx.getOutput(0));
+
+        Assertions.assertTrue(pool.contains(utxo0));
+        Assertions.assertFalse(pool.contains(utxo1));
+        Assertions.assertEquals(1, pool.size());
+        Assertions.assertFalse(copy.contains(utxo0));
+        Assertions.assertSame(tx.getOutput(0), copy.getTxOutput(utxo1));
+        Assertions.assertEquals(1, copy.size());
+    }
+
+    /**
+     * Random updates of a pool and its copies match those of hash maps, including colliding hashes.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Transaction tx = new Transaction(25, person.getPublic());
+        Transaction.Output output = tx.getOutput(0);
+        Random random = new Random(42);
+
+        UTXOPool pool = new UTXOPool();
+        HashMap<UTXO, Transaction.Output> expected = new HashMap<>();
+        ArrayList<UTXOPool> snapshots = new ArrayList<>();
+        ArrayList<HashMap<UTXO, Transaction.Output>> expectedSnapshots = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            // Few distinct hashes and output indices, so that many UTXOs share their hash code
+            byte[] hash = new byte[] {(byte) random.nextInt(64), (byte) random.nextInt(4)};
+            UTXO utxo = new UTXO(hash, random.nextInt(300));
+            if (random.nextInt(3) == 0) {
+                pool.removeUTXO(utxo);
+                expected.remove(utxo);
+            }
+            else {
+                pool.addUTXO(utxo, output);
+                expected.put(utxo, output);
+            }
+            if (i % 2000 == 0) {
+                snapshots.add(new UTXOPool(pool));
+                expectedSnapshots.add(new HashMap<>(expected));
+            }
+        }
+        snapshots.add(pool);
+        expectedSnapshots.add(expected);
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            UTXOPool snapshot = snapshots.get(i);
+            HashMap<UTXO, Transaction.Output> map = expectedSnapshots.get(i);
+            Assertions.assertEquals(map.size(), snapshot.size());
+            Assertions.assertEquals(map.keySet(), new HashSet<>(snapshot.getAllUTXO()));
+            for (UTXO utxo : map.keySet())
+                Assertions.assertTrue(snapshot.contains(utxo));
+        }
+    }
+
+    /**
+     * Random updates of an off-heap pool, which grows and reuses deleted slots, match those of a hash map.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewEd25519KeyPair();
+        Transaction tx = new Transaction();
+        tx.addOutput(25, person.getPublic());
+        tx.addOutput(0.5, personA.getPublic());
+        tx.finalize();
+        Random random = new Random(7);
+
+        UTXOPool pool = UTXOPool.createOffHeap(0);
+        HashMap<UTXO, Transaction.Output> expected = new HashMap<>();
+        UTXOPool copy = null;
+        HashMap<UTXO, Transaction.Output> expectedCopy = null;
+        for (int i = 0; i < 20000; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte) random.nextInt(64);
+            hash[31] = (byte) random.nextInt(4);
+            UTXO utxo = new UTXO(hash, random.nextInt(30));
+            Transaction.Output output = tx.getOutput(random.nextInt(2));
+            if (random.nextInt(3) == 0) {
+                pool.removeUTXO(utxo);
+                expected.remove(utxo);
+            }
+            else {
+                pool.addUTXO(utxo, output);
+                expected.put(utxo, output);
+            }
+            if (i == 10000) {
+                copy = new UTXOPool(pool);
+                expectedCopy = new HashMap<>(expected);
+            }
+        }
+
+        Assertions.assertEquals(expected.size(), pool.size());
+        Assertions.assertEquals(expected.keySet(), new HashSet<>(pool.getAllUTXO()));
+        for (UTXO utxo : expected.keySet())
+            Assertions.assertEquals(expected.get(utxo), pool.getTxOutput(utxo));
+        Assertions.assertEquals(expectedCopy.keySet(), new HashSet<>(copy.getAllUTXO()));
+        HashMap<UTXO, Transaction.Output> forEachMap = new HashMap<>();
+        pool.forEach(forEachMap::put);
+        Assertions.assertEquals(expected, forEachMap);
+
+        UTXO utxo = new UTXO(tx.getHash(), 0);
+        Transaction fractional = new Transaction();
+        fractional.addOutput(1e-9, person.getPublic());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> pool.addUTXO(utxo, fractional.getOutput(0)));
+    }
+
+    /**
+     * An off-heap pool reuses the ids of the addresses it no longer refers to, and a handler over it
+     * rejects the transactions whose values it can't hold instead of failing while applying them.
+     */
+    @Test
+    void test3() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair[] people = new KeyPair[3];
+        Transaction tx = new Transaction();
+        for (int i = 0; i < people.length; i++) {
+            people[i] = TestingUtils.generateNewKeyPair();
+            tx.addOutput(i + 1, people[i].getPublic());
+        }
+        tx.finalize();
+        UTXO[] utxos = new UTXO[3];
+        for (int i = 0; i < utxos.length; i++)
+            utxos[i] = new UTXO(tx.getHash(), i);
+
+        UTXOPool pool = UTXOPool.createOffHeap(0);
+        pool.addUTXO(utxos[0], tx.getOutput(0));
+        pool.addUTXO(utxos[1], tx.getOutput(1));
+        pool.removeUTXO(utxos[0]);
+        pool.addUTXO(utxos[2], tx.getOutput(2));
+        pool.addUTXO(utxos[1], tx.getOutput(0));
+        pool.addUTXO(utxos[0], tx.getOutput(1));
+        Assertions.assertEquals(tx.getOutput(1), pool.getTxOutput(utxos[0]));
+        Assertions.assertEquals(tx.getOutput(0), pool.getTxOutput(utxos[1]));
+        Assertions.assertEquals(tx.getOutput(2), pool.getTxOutput(utxos[2]));
+        Assertions.assertNull(pool.getTxOutput(new UTXO(new byte[5], 0)));
+
+        Transaction thirdTx = new Transaction();
+        thirdTx.addInput(tx.getHash(), 2);
+        thirdTx.addOutput(1.0 / 3, people[0].getPublic());
+        thirdTx.addSignature(TestingUtils.sign(people[2].getPrivate(), thirdTx.getRawDataToSign(0)), 0);
+        thirdTx.finalize();
+        UTXOPool heapPool = new UTXOPool();
+        heapPool.addUTXO(utxos[2], tx.getOutput(2));
+        Assertions.assertTrue(new TxHandler(heapPool).isValidTx(thirdTx));
+        Assertions.assertFalse(pool.canHold(1.0 / 3));
+        TxHandler handler = new TxHandler(pool);
+        Assertions.assertFalse(handler.isValidTx(thirdTx));
+        Assertions.assertEquals(0, handler.handleTxs(new Transaction[] {thirdTx}).length);
+        Assertions.assertTrue(handler.getUtxoPool().contains(utxos[2]));
+    }
+}
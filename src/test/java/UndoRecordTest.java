@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.security.*;
+import java.util.HashSet;
+
+/**
+ * Test class for the undo records and the reorganizations of the blockchain
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class UndoRecordTest {
+
+    /**
+     * Disconnecting a block restores the UTXO set of its previous block and connecting it again
+     * restores its own UTXO set.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        UTXOPool prevUtxoPool = blockChain.getMaxHeightUTXOPool();
+
+        Transaction tx = new Transaction();
+        tx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        tx.addOutput(10, personA.getPublic());
+        tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        Block block = new Block(genesisBlock.getHash(), personA.getPublic());
+        block.addTransaction(tx);
+        block.finalize();
+        Assertions.assertTrue(blockChain.addBlock(block));
+        UTXOPool newUtxoPool = blockChain.getMaxHeightUTXOPool();
+
+        UndoRecord undoRecord = new UndoRecord(block, prevUtxoPool, newUtxoPool);
+        Assertions.assertEquals(3, undoRecord.size());
+        UTXOPool utxoPool = new UTXOPool(newUtxoPool);
+        undoRecord.disconnect(utxoPool);
+        Assertions.assertEquals(new HashSet<>(prevUtxoPool.getAllUTXO()), new HashSet<>(utxoPool.getAllUTXO()));
+        undoRecord.connect(utxoPool);
+        Assertions.assertEquals(new HashSet<>(newUtxoPool.getAllUTXO()), new HashSet<>(utxoPool.getAllUTXO()));
+    }
+
+    /**
+     * A fork which becomes longer than the main chain becomes the maximum height block along with
+     * its UTXO set, and blocks can still be added on top of the old main chain.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+        BlockChain blockChain = new BlockChain(genesisBlock);
+        UTXO genesisUtxo = new UTXO(genesisBlock.getCoinbase().getHash(), 0);
+
+        // The main chain spends the genesis coinbase in its first block
+        KeyPair personA = TestingUtils.generateNewKeyPair();
+        Transaction tx = new Transaction();
+        tx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+        tx.addOutput(25, personA.getPublic());
+        tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        Block mainBlock = new Block(genesisBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        mainBlock.addTransaction(tx);
+        mainBlock.finalize();
+        Assertions.assertTrue(blockChain.addBlock(mainBlock));
+        for (int i = 0; i < 3; i++) {
+            mainBlock = new Block(mainBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+            mainBlock.finalize();
+            Assertions.assertTrue(blockChain.addBlock(mainBlock));
+        }
+        Assertions.assertFalse(blockChain.getMaxHeightUTXOPool().contains(genesisUtxo));
+
+        // The fork doesn't spend it and overtakes the main chain
+        Block forkBlock = genesisBlock;
+        for (int i = 0; i < 5; i++) {
+            forkBlock = new Block(forkBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+            forkBlock.finalize();
+            Assertions.assertTrue(blockChain.addBlock(forkBlock));
+        }
+        Assertions.assertSame(forkBlock, blockChain.getMaxHeightBlock());
+        UTXOPool utxoPool = blockChain.getMaxHeightUTXOPool();
+        Assertions.assertTrue(utxoPool.contains(genesisUtxo));
+        Assertions.assertFalse(utxoPool.contains(new UTXO(tx.getHash(), 0)));
+        Assertions.assertEquals(6, utxoPool.size());
+
+        // The old main chain can still be extended, with the output of its first block
+        Transaction spendTx = new Transaction();
+        spendTx.addInput(tx.getHash(), 0);
+        spendTx.addOutput(25, person.getPublic());
+        spendTx.addSignature(TestingUtils.sign(personA.getPrivate(), spendTx.getRawDataToSign(0)), 0);
+        spendTx.finalize();
+        Block block = new Block(mainBlock.getHash(), TestingUtils.generateNewKeyPair().getPublic());
+        block.addTransaction(spendTx);
+        block.finalize();
+        Assertions.assertTrue(blockChain.addBlock(block));
+        Assertions.assertSame(forkBlock, blockChain.getMaxHeightBlock());
+    }
+}
@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+
+/**
+ * Test class for the UTXO set snapshots
+ */
+@SuppressWarnings("FinalizeCalledExplicitly")
+public class UtxoSnapshotTest {
+
+    /**
+     * A loaded snapshot finds single outputs and decodes back to the snapshotted UTXO set.
+     */
+    @Test
+    void test0() throws NoSuchAlgorithmException, IOException {
+        Path file = Files.createTempDirectory("snapshot").resolve("utxo.dat");
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        KeyPair personA = TestingUtils.generateNewEd25519KeyPair();
+        Transaction tx = new Transaction();
+        tx.addOutput(10, personA.getPublic());
+        tx.addOutput(15, person.getPublic());
+        tx.addOutput(20, personA.getPublic());
+        tx.finalize();
+        UTXOPool utxoPool = new UTXOPool();
+        for (int i = 0; i < tx.numOutputs(); i++)
+            utxoPool.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        byte[] blockHash = new byte[32];
+        blockHash[0] = 7;
+
+        UtxoSnapshot.write(file, blockHash, 3, utxoPool);
+        UtxoSnapshot snapshot = UtxoSnapshot.load(file);
+        Assertions.assertArrayEquals(blockHash, snapshot.getBlockHash());
+        Assertions.assertEquals(3, snapshot.getHeight());
+        Assertions.assertEquals(3, snapshot.size());
+        Assertions.assertEquals(tx.getOutput(1), snapshot.getTxOutput(new UTXO(tx.getHash(), 1)));
+        Assertions.assertNull(snapshot.getTxOutput(new UTXO(tx.getHash(), 3)));
+
+        UTXOPool restored = snapshot.toUtxoPool();
+        Assertions.assertEquals(3, restored.size());
+        for (int i = 0; i < tx.numOutputs(); i++)
+            Assertions.assertEquals(tx.getOutput(i), restored.getTxOutput(new UTXO(tx.getHash(), i)));
+    }
+
+    /**
+     * A blockchain restarts from a snapshot and adds the stored blocks above it again.
+     */
+    @Test
+    void test1() throws NoSuchAlgorithmException, SignatureException, InvalidKeyException, IOException {
+        Path directory = Files.createTempDirectory("snapshot");
+        Path file = directory.resolve("utxo.dat");
+        KeyPair person = TestingUtils.generateNewKeyPair();
+        Block genesisBlock = new Block(null, person.getPublic());
+        genesisBlock.finalize();
+
+        Block[] blocks = new Block[6];
+        blocks[0] = genesisBlock;
+        try (BlockStore blockStore = new BlockStore(directory.resolve("blocks"))) {
+            BlockChain blockChain = new BlockChain(genesisBlock, SignatureVerifier.getDefault(),
+                                                   PruningPolicy.getDefault(), blockStore);
+            blockChain.scheduleSnapshots(file, 4);
+            for (int i = 1; i < blocks.length; i++) {
+                blocks[i] = new Block(blocks[i - 1].getHash(), TestingUtils.generateNewKeyPair().getPublic());
+                if (i == 4) {
+                    Transaction tx = new Transaction();
+                    tx.addInput(genesisBlock.getCoinbase().getHash(), 0);
+                    tx.addOutput(25, person.getPublic());
+                    tx.addSignature(TestingUtils.sign(person.getPrivate(), tx.getRawDataToSign(0)), 0);
+                    tx.finalize();
+                    blocks[i].addTransaction(tx);
+                }
+                blocks[i].finalize();
+                Assertions.assertTrue(blockChain.addBlock(blocks[i]));
+                blockChain.awaitSnapshot();
+            }
+        }
+
+        UtxoSnapshot snapshot = UtxoSnapshot.load(file);
+        Assertions.assertEquals(4, snapshot.getHeight());
+        Assertions.assertArrayEquals(blocks[3].getHash(), snapshot.getBlockHash());
+        Assertions.assertEquals(4, snapshot.size());
+
+        try (BlockStore blockStore = new BlockStore(directory.resolve("blocks"))) {
+            BlockChain blockChain = new BlockChain(snapshot, SignatureVerifier.getDefault(),
+                                                   PruningPolicy.getDefault(), blockStore);
+            Assertions.assertEquals(6, blockChain.getMaxHeight());
+            Assertions.assertArrayEquals(blocks[5].getHash(), blockChain.getMaxHeightBlock().getHash());
+            Assertions.assertNull(blockChain.getMainChainHeader(2));
+            Assertions.assertArrayEquals(blocks[3].getHash(), blockChain.getMainChainHeader(4).getHash());
+            UTXOPool utxoPool = blockChain.getMaxHeightUTXOPool();
+            Assertions.assertEquals(6, utxoPool.size());
+            Assertions.assertFalse(utxoPool.contains(new UTXO(genesisBlock.getCoinbase().getHash(), 0)));
+
+            Block block = new Block(blocks[5].getHash(), TestingUtils.generateNewKeyPair().getPublic());
+            block.finalize();
+            Assertions.assertTrue(blockChain.addBlock(block));
+            Assertions.assertEquals(7, blockChain.getMaxHeight());
+        }
+    }
+
+    /**
+     * A pool backed by a snapshot overrides the snapshot UTXOs it removes and adds again, and its
+     * copies are independent.
+     */
+    @Test
+    void test2() throws NoSuchAlgorithmException, IOException {
+        Path file = Files.createTempDirectory("snapshot").resolve("utxo.dat");
+        KeyPair person = TestingUtils.generateNewEd25519KeyPair();
+        Transaction tx = new Transaction();
+        for (int i = 0; i < 4; i++)
+            tx.addOutput(10 + i, person.getPublic());
+        tx.finalize();
+        UTXOPool utxoPool = new UTXOPool();
+        for (int i = 0; i < 3; i++)
+            utxoPool.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        UtxoSnapshot.write(file, new byte[32], 1, utxoPool);
+
+        UTXOPool restored = UtxoSnapshot.load(file).toUtxoPool();
+        restored.removeUTXO(new UTXO(tx.getHash(), 0));
+        restored.removeUTXO(new UTXO(tx.getHash(), 0));
+        restored.removeUTXO(new UTXO(tx.getHash(), 1));
+        restored.addUTXO(new UTXO(tx.getHash(), 1), tx.getOutput(1));
+        restored.addUTXO(new UTXO(tx.getHash(), 3), tx.getOutput(3));
+        UTXOPool copy = new UTXOPool(restored);
+        copy.removeUTXO(new UTXO(tx.getHash(), 3));
+        copy.addUTXO(new UTXO(tx.getHash(), 0), tx.getOutput(0));
+
+        Assertions.assertEquals(3, restored.size());
+        Assertions.assertFalse(restored.contains(new UTXO(tx.getHash(), 0)));
+        Assertions.assertNull(restored.getTxOutput(new UTXO(tx.getHash(), 0)));
+        Assertions.assertEquals(tx.getOutput(1), restored.getTxOutput(new UTXO(tx.getHash(), 1)));
+        Assertions.assertEquals(tx.getOutput(3), restored.getTxOutput(new UTXO(tx.getHash(), 3)));
+        Assertions.assertEquals(3, restored.getAllUTXO().size());
+        Assertions.assertEquals(3, copy.size());
+        Assertions.assertTrue(copy.contains(new UTXO(tx.getHash(), 0)));
+        Assertions.assertFalse(copy.contains(new UTXO(tx.getHash(), 3)));
+        Assertions.assertEquals(3, copy.getAllUTXO().size());
+    }
+}